@@ -0,0 +1,251 @@
+/**
+ * This class reads the CAPEC dataset as a stream of RFC-4180 records. It works
+ * on a fixed char buffer and exposes the columns of the current row as reusable
+ * CharSequence views, so that reading a row does not allocate any object.
+ * Quoted fields (with commas, escaped quotes and line breaks) are supported.
+ */
+package ontoapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+public class CapecCsvReader implements Closeable {
+
+    // Constant attributes
+    static final char DELIMITER = ',';
+    static final char QUOTE = '"';
+    static final String MULTI_SEPARATOR = "::"; // Separator of multi-valued cells in CAPEC
+
+    // Input buffer
+    final Reader in;
+    char[] buf;
+    int pos = 0;
+    int limit = 0;
+    boolean eof = false;
+
+    // Current row: content of all the columns and their bounds in it
+    char[] row = new char[4096];
+    int rowLen = 0;
+    int[] starts = new int[32];
+    int[] ends = new int[32];
+    int numCols = 0;
+    Column[] views = new Column[0];
+    CharSequence[] columns = new CharSequence[0];
+    long rowsRead = 0;
+
+    public CapecCsvReader(Reader in){
+        this(in, 1 << 16);
+    }
+
+    public CapecCsvReader(Reader in, int bufferSize){
+        this.in = in;
+        this.buf = new char[bufferSize];
+    }
+
+    // Getters of the current row
+    public int getColumnCount() {return numCols;}
+    public CharSequence getColumn(int i) {return columns[i];}
+    public long getRowsRead() {return rowsRead;}
+
+    /**
+     * This method returns the columns of the current row. The array and the
+     * views in it are reused by the next call of nextRow(): copy them with
+     * toString() if they must survive.
+     * @return: the columns of the current row
+     */
+    public CharSequence[] getColumns() {return columns;}
+
+    /**
+     * This method reads the next record of the stream (empty lines are skipped)
+     * @return: true if a row has been read, false at the end of the stream
+     * @throws IOException if the stream cannot be read or a quote is not closed
+     */
+    public boolean nextRow() throws IOException {
+        rowLen = 0;
+        numCols = 0;
+
+        // Skip empty lines between records
+        int c;
+        while((c = peek()) == '\n' || c == '\r'){pos++;}
+        if(c < 0){return false;}
+
+        boolean endOfRecord = false;
+        while(!endOfRecord){
+            int start = rowLen;
+            if(peek() == QUOTE){
+                pos++;
+                readQuoted();
+            } else {
+                readUnquoted();
+            }
+            addColumn(start, rowLen);
+
+            // Consume the delimiter or the end of the record
+            c = peek();
+            if(c == DELIMITER){
+                pos++;
+            } else {
+                endOfRecord = true;
+                if(c == '\r'){
+                    pos++;
+                    if(peek() == '\n'){pos++;}
+                } else if(c == '\n'){
+                    pos++;
+                }
+            }
+        }
+
+        // Publish the views of the row
+        if(columns.length != numCols){
+            columns = new CharSequence[numCols];
+            if(views.length < numCols){views = Arrays.copyOf(views, numCols);}
+            for(int i=0; i<numCols; i++){
+                if(views[i] == null){views[i] = new Column(i);}
+                columns[i] = views[i];
+            }
+        }
+        rowsRead++;
+        return true;
+    }
+
+    // Copy the characters up to the next delimiter or line break
+    private void readUnquoted() throws IOException {
+        while(true){
+            if(pos >= limit && !fill()){return;}
+            int from = pos;
+            char[] b = buf;
+            int end = limit;
+            while(pos < end){
+                char ch = b[pos];
+                if(ch == DELIMITER || ch == '\n' || ch == '\r'){break;}
+                pos++;
+            }
+            append(b, from, pos - from);
+            if(pos < end){return;}
+        }
+    }
+
+    // Copy the characters up to the closing quote, un-escaping double quotes
+    private void readQuoted() throws IOException {
+        while(true){
+            if(pos >= limit && !fill()){
+                throw new IOException("Unterminated quoted field at row " + (rowsRead + 1));
+            }
+            int from = pos;
+            char[] b = buf;
+            int end = limit;
+            while(pos < end && b[pos] != QUOTE){pos++;}
+            append(b, from, pos - from);
+            if(pos < end){
+                pos++; // closing quote or first quote of an escaped one
+                if(peek() == QUOTE){
+                    append(b, pos, 1);
+                    pos++;
+                } else {
+                    // Characters after the closing quote belong to the same field
+                    readUnquoted();
+                    return;
+                }
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if(pos >= limit && !fill()){return -1;}
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        if(eof){return false;}
+        int n = in.read(buf, 0, buf.length);
+        if(n <= 0){
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private void append(char[] src, int from, int len){
+        if(len == 0){return;}
+        if(rowLen + len > row.length){
+            row = Arrays.copyOf(row, Math.max(row.length * 2, rowLen + len));
+        }
+        System.arraycopy(src, from, row, rowLen, len);
+        rowLen += len;
+    }
+
+    private void addColumn(int start, int end){
+        if(numCols == starts.length){
+            starts = Arrays.copyOf(starts, numCols * 2);
+            ends = Arrays.copyOf(ends, numCols * 2);
+        }
+        starts[numCols] = start;
+        ends[numCols] = end;
+        numCols++;
+    }
+
+    @Override
+    public void close() throws IOException {in.close();}
+
+    /**
+     * This method splits a multi-valued CAPEC cell (as "::A::B::") in its values
+     * @param cell: content of the cell
+     * @param values: list to fill (it is cleared before)
+     * @return: the list of the values (the whole cell if it is single-valued)
+     */
+    public static ArrayList<String> splitValues(CharSequence cell, ArrayList<String> values){
+        values.clear();
+        int len = cell.length();
+        if(len < 2 || cell.charAt(0) != ':' || cell.charAt(1) != ':'){
+            values.add(cell.toString());
+            return values;
+        }
+        int start = 2;
+        for(int i=2; i<len; i++){
+            if(cell.charAt(i) == ':' && i + 1 < len && cell.charAt(i + 1) == ':'){
+                addValue(cell, start, i, values);
+                i++;
+                start = i + 1;
+            }
+        }
+        addValue(cell, start, len, values);
+        return values;
+    }
+
+    private static void addValue(CharSequence cell, int start, int end, ArrayList<String> values){
+        while(start < end && cell.charAt(start) == ' '){start++;}
+        while(end > start && cell.charAt(end - 1) == ' '){end--;}
+        if(end > start){values.add(cell.subSequence(start, end).toString());}
+    }
+
+    /**
+     * View over one column of the current row (valid until the next row is read)
+     */
+    final class Column implements CharSequence {
+        final int index;
+
+        Column(int index) {this.index = index;}
+
+        @Override
+        public int length() {return ends[index] - starts[index];}
+
+        @Override
+        public char charAt(int i) {return row[starts[index] + i];}
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(row, starts[index] + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(row, starts[index], ends[index] - starts[index]);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * This class maps a row of the CAPEC dataset into the triples of its individuals,
+ * of its object property assertions and of its description. It works on plain
+ * graphs, so rows can be inserted without the ontology API and by many threads
+ * at the same time (one mapper for each thread, since it reuses its buffers).
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.vocabulary.RDF;
+
+
+public class CapecRowMapper {
+
+    // Constant attributes
+    final OntoCapecModel onto;
+    final String myns;
+    final Node type = RDF.Nodes.type;
+
+    // Classes of the individuals
+    final Node attackPattern, attacker, attack, id, name, abstraction, status,
+            likelihood, severity, prereq, skill, resource, vulnerability,
+            exeFlow, consequence, mitigation;
+
+    // Object properties of the assertions
+    final Node hasName, hasAbstraction, hasStatus, hasSeverity, hasLikelihood,
+            uses, needs, precondition, implies, executes, reduces, hasKnowledge,
+            exploits, makes, relatedTo, relatedPattern;
+
+    // Datatype property of the description
+    final Node hasDescription;
+
+    // Buffer for multi-valued cells
+    final ArrayList<String> values = new ArrayList<>();
+
+    // IRIs created by this mapper (see OntoCapecMetrics)
+    long irisCreated = 0;
+
+    public CapecRowMapper(OntoCapecModel onto){
+        this.onto = onto;
+        this.myns = onto.getMynsUri();
+
+        attackPattern = iri("AttackPattern");
+        attacker = iri("Attacker");
+        attack = iri("Attack");
+        id = iri("Id");
+        name = iri("Name");
+        abstraction = iri("Abstraction");
+        status = iri("Status");
+        likelihood = iri("Likelihood");
+        severity = iri("Severity");
+        prereq = iri("Prerequisite");
+        skill = iri("Skill");
+        resource = iri("Resource");
+        vulnerability = iri("Vulnerability");
+        exeFlow = iri("ExecutionFlow");
+        consequence = iri("Consequence");
+        mitigation = iri("MitigationAction");
+
+        hasName = iri("hasName");
+        hasAbstraction = iri("hasAbstraction");
+        hasStatus = iri("hasStatus");
+        hasSeverity = iri("hasSeverity");
+        hasLikelihood = iri("hasLikelihood");
+        uses = iri("uses");
+        needs = iri("need");
+        precondition = iri("precondition");
+        implies = iri("implies");
+        executes = iri("executes");
+        reduces = iri("reduces");
+        hasKnowledge = iri("hasKnowledge");
+        exploits = iri("exploits");
+        makes = iri("makes");
+        relatedTo = iri("relatedTo");
+        relatedPattern = iri("relatedPattern");
+        hasDescription = iri("hasDescription");
+    }
+
+    private Node iri(String localName){
+        irisCreated++;
+        return NodeFactory.createURI(myns + localName);
+    }
+
+    // Create the individual of a class (as createIndividual of the ontology API)
+    private Node individual(Graph g, String localName, Node cls){
+        Node ind = iri(localName);
+        g.add(Triple.create(ind, type, cls));
+        return ind;
+    }
+
+    /**
+     * This method inserts the individuals and the assertions of a row. The
+     * attacker and the attack of the row are named after its CAPEC ID, so
+     * they do not change when other rows are inserted or removed.
+     * @param g: graph in which to insert the triples
+     * @param data: columns of the row (as in CAPEC dataset)
+     */
+    public void addRow(Graph g, CharSequence[] data){
+
+        // Create instances of classes
+        Node attackerP = individual(g, "attacker"+data[0], attacker);
+        Node attackActP = individual(g, "attack"+data[0], attack);
+        Node attackP = individual(g, data[0].toString(), id);
+        Node nameP = individual(g, data[1].toString(), name);
+        Node abstP = individual(g, data[2].toString(), abstraction);
+        Node statP = individual(g, data[3].toString(), status);
+        Node likeP = individual(g, data[6].toString(), likelihood);
+        Node sevP = individual(g, data[7].toString(), severity);
+        Node flowP = individual(g, onto.wellFormedUri(data[9].toString()), exeFlow);
+        Node skillP = individual(g, data[11].toString(), skill);
+        Node resP = individual(g, data[12].toString(), resource);
+        Node consP = individual(g, data[14].toString(), consequence);
+
+        // Object Property assertions (attack pattern)
+        g.add(Triple.create(attackP, hasName, nameP));
+        g.add(Triple.create(attackP, hasAbstraction, abstP));
+        g.add(Triple.create(attackP, hasStatus, statP));
+        g.add(Triple.create(attackP, hasSeverity, sevP));
+        g.add(Triple.create(attackP, hasLikelihood, likeP));
+
+        // Datatype Property assertion (attack pattern): the text searched by OntoCapecTextIndex
+        if(data[4].length() > 0){g.add(Triple.create(attackP, hasDescription, NodeFactory.createLiteral(data[4].toString())));}
+
+        // Object Property assertions (attack)
+        g.add(Triple.create(attackActP, implies, consP));
+        g.add(Triple.create(attackActP, executes, flowP));
+
+        // Object Property assertions (attacker)
+        g.add(Triple.create(attackerP, uses, resP));
+        g.add(Triple.create(attackerP, needs, skillP));
+
+        // Object Property assertions (vulnerability and relations)
+        g.add(Triple.create(attackerP, makes, attackActP));
+        g.add(Triple.create(attackActP, relatedTo, attackP));
+        g.add(Triple.create(attackerP, relatedTo, attackP));
+
+        // Multi-valued elements: one individual for each value
+        for(String relatedPattern_ : CapecCsvReader.splitValues(data[8], values)){
+            Node relP = individual(g, relatedPattern_, attackPattern);
+            g.add(Triple.create(attackP, relatedPattern, relP));
+        }
+        for(String prereq_ : CapecCsvReader.splitValues(data[10], values)){
+            Node prereqP = individual(g, onto.wellFormedUri(prereq_), prereq);
+            g.add(Triple.create(attackerP, precondition, prereqP));
+        }
+        for(String mitigation_ : CapecCsvReader.splitValues(data[15], values)){
+            Node mitigP = individual(g, onto.wellFormedUri(mitigation_), mitigation);
+            g.add(Triple.create(mitigP, reduces, attackActP));
+        }
+        for(String vulnerability_ : CapecCsvReader.splitValues(data[17], values)){
+            // CWE numbers: prefixed, otherwise CWE-120 would be the pattern CAPEC-120
+            // (the empty cells stay the null individual of all the columns)
+            Node vulnP = individual(g, "null".equals(vulnerability_) ? vulnerability_ : "CWE-" + vulnerability_, vulnerability);
+            g.add(Triple.create(attackerP, hasKnowledge, vulnP));
+            g.add(Triple.create(attackActP, exploits, vulnP));
+        }
+    }
+}
@@ -3,12 +3,23 @@
  */
 package ontoapp;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
 import org.apache.jena.ontology.OntModel;
 
 public class OntoApp {
     
     public static void startQuery(OntoCapecReasoner reasoner, OntModel modelCapec, int index){
+        GuiResult guiQuery = new GuiResult(query(reasoner, modelCapec), "Query Answering", index);
+    }
+    
+    // Result of the query answering task
+    static ArrayList<String> query(OntoCapecReasoner reasoner, OntModel modelCapec){
         
 //        System.out.println("\nA - QUERY ANSWERING: return likelihood of attack patterns with HIGH severity.");
         ArrayList<String> header = new ArrayList<>();
@@ -21,10 +32,15 @@ public class OntoApp {
         
         ArrayList<String> res = reasoner.makeQuery(modelCapec, queryExample);
         header.addAll(res);
-        GuiResult guiQuery = new GuiResult(header, "Query Answering", index);
+        return header;
     }
     
     public static void startConsistency(OntoCapecReasoner reasoner, OntModel modelCapec, int index){
+        GuiResult guiConsistency = new GuiResult(consistency(reasoner, modelCapec), "Consistency Problem", index);
+    }
+    
+    // Result of the consistency task
+    static ArrayList<String> consistency(OntoCapecReasoner reasoner, OntModel modelCapec){
         ArrayList<String> headerA = new ArrayList<>();
         ArrayList<String> headerB = new ArrayList<>();
         ArrayList<String> headerC = new ArrayList<>();
@@ -46,10 +62,15 @@ public class OntoApp {
         
         headerA.addAll(headerB);
         headerA.addAll(headerC);
-        GuiResult guiConsistency = new GuiResult(headerA, "Consistency Problem", index);
+        return headerA;
     }
     
     public static void startSubsumption(OntoCapecReasoner reasoner, OntModel modelCapec, int index){
+        GuiResult guiSubsumption = new GuiResult(subsumption(reasoner, modelCapec), "Concept Subsumption", index);
+    }
+    
+    // Result of the subsumption task
+    static ArrayList<String> subsumption(OntoCapecReasoner reasoner, OntModel modelCapec){
         ArrayList<String> headerA = new ArrayList<>();
         ArrayList<String> headerB = new ArrayList<>();
         ArrayList<String> headerC = new ArrayList<>();
@@ -71,10 +92,15 @@ public class OntoApp {
         
         headerA.addAll(headerB);
         headerA.addAll(headerC);
-        GuiResult guiSubsumption = new GuiResult(headerA, "Concept Subsumption", index);
+        return headerA;
     }
     
     public static void startInstanceChecking(OntoCapecReasoner reasoner, OntModel modelCapec, int index){
+        GuiResult guiChecking = new GuiResult(instanceChecking(reasoner, modelCapec), "Instance Checking", index);
+    }
+    
+    // Result of the instance checking task
+    static ArrayList<String> instanceChecking(OntoCapecReasoner reasoner, OntModel modelCapec){
         ArrayList<String> headerA = new ArrayList<>();
         ArrayList<String> headerB = new ArrayList<>();
         ArrayList<String> headerC = new ArrayList<>();
@@ -96,31 +122,66 @@ public class OntoApp {
         
         headerA.addAll(headerB);
         headerA.addAll(headerC);
-        GuiResult guiChecking = new GuiResult(headerA, "Instance Checking", index);
+        return headerA;
     }
 
     public static void main(String[] args) {
+        
+        // Batch mode: the tasks of a file are run without GUI (see OntoCapecBatch)
+        if(args.length > 0 && "--batch".equals(args[0])){
+            OntoCapecBatch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
         OntoCapecModel onto = new OntoCapecModel();
         OntoCapecReasoner reasoner = new OntoCapecReasoner();
         
-        OntModel modelCapec = onto.createModel();
-        System.out.println("Ontology created in file: "+onto.ontologyPath +"\n");
-        
-        System.out.print("Doing query ...");
-        startQuery(reasoner, modelCapec, 0);
-        System.out.print(" DONE!\n");
-        
-        System.out.print("Doing subsumption ...");
-        startSubsumption(reasoner, modelCapec, 1);
-        System.out.print(" DONE!\n");
-        
-        System.out.print("Doing instance checking ...");
-        startInstanceChecking(reasoner, modelCapec, 2);
-        System.out.print(" DONE!\n");
-        
-        System.out.print("Doing consistency ...");
-        startConsistency(reasoner, modelCapec, 3);
-        System.out.print(" DONE!\n");
+        OntoCapecSnapshot snapshot = new OntoCapecSnapshot(onto);
+        
+        // Load the snapshot of the model if it is up to date, otherwise create it
+        OntModel modelCapec = snapshot.open();
+        if(snapshot.getColdStartMillis() >= 0){
+            System.out.println("Ontology created in file: "+onto.ontologyPath);
+        }
+        System.out.println("Ontology loaded: cold start " + snapshot.getColdStartMillis() 
+                + " ms, warm start " + snapshot.getWarmStartMillis() + " ms (-1: not done)\n");
+        
+        // Server mode: the model is exposed over HTTP (optional port) instead of showing the results
+        if(args.length > 0 && "--server".equals(args[0])){
+            OntoCapecServer server = new OntoCapecServer(modelCapec, reasoner);
+            if(args.length > 1){server.setPort(Integer.parseInt(args[1]));}
+            try {server.start();}
+            catch (IOException ex) {Logger.getLogger(OntoApp.class.getName()).log(Level.SEVERE, null, ex);}
+            return;
+        }
+        
+        // The tasks only read the model: they run at the same time, each one
+        // shows its window as soon as it ends (see OntoCapecScheduler)
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecScheduler scheduler = new OntoCapecScheduler(modelCapec);
+        scheduler.add("task.query", OntoApp::query);
+        scheduler.add("task.subsumption", OntoApp::subsumption);
+        scheduler.add("task.instance", OntoApp::instanceChecking);
+        scheduler.add("task.consistency", OntoApp::consistency);
+        final String[] titles = {"Query Answering", "Concept Subsumption", "Instance Checking", "Consistency Problem"};
+        
+        System.out.println("Doing query, subsumption, instance checking and consistency ...");
+        scheduler.run(job -> {
+            final int index = scheduler.getJobs().indexOf(job);
+            if(job.isDone()){
+                System.out.println(job.getName() + " DONE! (" + Math.round(job.getMillis()) + " ms)");
+                SwingUtilities.invokeLater(() -> new GuiResult(job.getResult(), titles[index], index));
+            } else{
+                System.out.println(job.getName() + " FAILED: " + job.getError());
+            }
+        });
+        System.out.println("\nTasks:\n" + scheduler.report());
+        
+        // The output file is written in background while the tasks run
+        if(onto.getPendingWrite() != null){
+            try {System.out.println("Output file written: " + onto.getPendingWrite().get());}
+            catch (InterruptedException | ExecutionException ex) {Logger.getLogger(OntoApp.class.getName()).log(Level.SEVERE, null, ex);}
+        }
+        System.out.println("\nMetrics:\n" + metrics.report());
     }
 }
@@ -0,0 +1,356 @@
+/**
+ * This class runs many reasoning tasks without GUI (AWT is never loaded): the
+ * tasks are read from a file, run in parallel over the same model and their
+ * results are written, as soon as each task ends, in CSV, JSON or NDJSON.
+ *
+ * Format of the task file (one task for each line, # for comments):
+ *      query SPARQL query                  (prefixes rdf, rdfs, owl, xsd, myns already defined)
+ *      subsumption [C D]                   (classification without concepts)
+ *      instance [a] C                      (retrieval without individual)
+ *      consistency [none|concept|ontology] (inconsistency generated before the check)
+ *
+ * Usage: OntoCapecBatch tasks-file [csv|json|ndjson] [output-file or - for stdout]
+ */
+package ontoapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+
+
+public class OntoCapecBatch {
+
+    /**
+     * Formats of the output
+     */
+    public enum Format {
+        CSV,    // One line for each row of result: id,type,status,millis,values...
+        JSON,   // An array with one object for each task
+        NDJSON; // One object for each task on each line
+    }
+
+    /**
+     * Task read from the file
+     */
+    public static class Task {
+        final int id; // Line of the file
+        final String type;
+        final String[] args;
+        final String text; // The line itself
+
+        Task(int id, String type, String[] args, String text){
+            this.id = id;
+            this.type = type;
+            this.args = args;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Result of a task: names of the columns and rows of values
+     */
+    static class Outcome {
+        final Task task;
+        final List<String> vars = new ArrayList<>();
+        final List<String[]> rows = new ArrayList<>();
+        String status = "ok";
+        long millis;
+
+        Outcome(Task task){
+            this.task = task;
+        }
+    }
+
+    // Attributes for customization
+    int threads = Runtime.getRuntime().availableProcessors(); // Workers running the tasks
+    Format format = Format.NDJSON;
+
+    // A reasoner for each worker (the inference models cannot be read by many threads)
+    final OntoCapecReasoner.PerThread reasoners = OntoCapecReasoner.perThread();
+
+    // Setters of the customization
+    public void setThreads(int threads) {this.threads = threads;}
+    public void setFormat(Format format) {this.format = format;}
+
+    /**
+     * This method reads the tasks of a file
+     * @param path: file of the tasks
+     * @return: the tasks, in order of line
+     * @throws IOException if the file cannot be read
+     */
+    public List<Task> readTasks(String path) throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            int lineNumber = 0;
+            for(String line = reader.readLine(); line != null; line = reader.readLine()){
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")){continue;}
+                tasks.add(parseTask(lineNumber, line));
+            }
+        } finally {
+            reader.close();
+        }
+        return tasks;
+    }
+
+    /**
+     * This method parses a line of the task file
+     * @param id: identifier of the task
+     * @param line: the line (not empty)
+     * @return: the task
+     */
+    public Task parseTask(int id, String line){
+        String[] split = line.split("\\s+", 2);
+        String type = split[0].toLowerCase();
+        String rest = split.length > 1 ? split[1].trim() : "";
+        if("query".equals(type)){return new Task(id, type, new String[] {rest}, line);}
+        return new Task(id, type, rest.isEmpty() ? new String[0] : rest.split("\\s+"), line);
+    }
+
+    /**
+     * This method runs a task with the reasoner of the current worker
+     * @param m: model on which reason (only read)
+     * @param task: task to run
+     * @return: the result of the task
+     */
+    Outcome execute(OntModel m, Task task){
+        final Outcome outcome = new Outcome(task);
+        OntoCapecReasoner reasoner = reasoners.get();
+        long start = System.nanoTime();
+        try {
+            String[] args = task.args;
+            switch(task.type){
+                case "query":
+                    if(reasoner.queryCache.get(args[0]).getQuery().isSelectType()){
+                        // The rows are read from the solutions, without the printable format
+                        reasoner.streamQuery(m, args[0], 0, -1, new OntoCapecResultHandler() {
+                            @Override
+                            public void start(List<String> vars) {outcome.vars.addAll(vars);}
+
+                            @Override
+                            public boolean solution(QuerySolution sol){
+                                String[] row = new String[outcome.vars.size()];
+                                for(int i=0; i<row.length; i++){
+                                    RDFNode node = sol.get(outcome.vars.get(i));
+                                    row[i] = node == null ? null : reasoner.nameOf(node);
+                                }
+                                outcome.rows.add(row);
+                                return true;
+                            }
+                        });
+                    } else{
+                        addLines(outcome, reasoner.makeQuery(m, args[0]));
+                    }
+                    break;
+                case "subsumption":
+                    if(args.length == 0){addLines(outcome, reasoner.findSubclass(m, "", ""));}
+                    else if(args.length == 2){addLines(outcome, reasoner.findSubclass(m, args[0], args[1]));}
+                    else{throw new IllegalArgumentException("subsumption needs no concept or two concepts");}
+                    break;
+                case "instance":
+                    if(args.length == 1){addLines(outcome, reasoner.instanceChecking(m, "", args[0]));}
+                    else if(args.length == 2){addLines(outcome, reasoner.instanceChecking(m, args[0], args[1]));}
+                    else{throw new IllegalArgumentException("instance needs a concept and an optional individual");}
+                    break;
+                case "consistency":
+                    String kind = args.length == 0 ? "none" : args[0];
+                    addLines(outcome, reasoner.detectInconsistency(m, "ontology".equals(kind), "concept".equals(kind)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown task " + task.type);
+            }
+        } catch (RuntimeException ex) {
+            outcome.status = "error";
+            outcome.vars.clear();
+            outcome.rows.clear();
+            outcome.vars.add("error");
+            outcome.rows.add(new String[] {String.valueOf(ex.getMessage())});
+        }
+        outcome.millis = (System.nanoTime() - start) / 1000000;
+        return outcome;
+    }
+
+    // Lines of the printable result (the header line of SELECT is dropped)
+    void addLines(Outcome outcome, List<String> lines){
+        outcome.vars.add("result");
+        for(String line : lines){
+            if(line.startsWith("RESULT in format:")){continue;}
+            outcome.rows.add(new String[] {line.trim()});
+        }
+    }
+
+    /**
+     * This method runs the tasks in parallel and writes each result as soon as
+     * its task ends (so the order of the output is not the order of the tasks)
+     * @param m: model on which reason (it must not change during the run)
+     * @param tasks: tasks to run
+     * @param out: destination of the results (not closed)
+     * @return: the number of tasks failed
+     * @throws IOException if the results cannot be written
+     */
+    public int run(final OntModel m, List<Task> tasks, OutputStream out) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+        if(format == Format.JSON){writer.write("[\n");}
+        if(format == Format.CSV){writer.write("id,type,status,millis,values\n");}
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(final Task task : tasks){
+                futures.add(pool.submit(() -> {
+                    Outcome outcome = execute(m, task);
+                    if(!"ok".equals(outcome.status)){failed.incrementAndGet();}
+                    synchronized(writer){
+                        write(writer, outcome, written.getAndIncrement() == 0);
+                        writer.flush();
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures){future.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdown();
+            reasoners.clear();
+        }
+        if(format == Format.JSON){writer.write("\n]\n");}
+        writer.flush();
+        return failed.get();
+    }
+
+    /**
+     * This method writes the result of a task in the output format
+     * @param writer: destination
+     * @param outcome: result to write
+     * @param first: true for the first result written
+     * @throws IOException if the result cannot be written
+     */
+    void write(Writer writer, Outcome outcome, boolean first) throws IOException {
+        Task task = outcome.task;
+        if(format == Format.CSV){
+            for(String[] row : outcome.rows){
+                writer.write(task.id + "," + task.type + "," + outcome.status + "," + outcome.millis);
+                for(String value : row){writer.write("," + csv(value));}
+                writer.write("\n");
+            }
+            return;
+        }
+        if(format == Format.JSON && !first){writer.write(",\n");}
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\": ").append(task.id)
+          .append(", \"type\": ").append(json(task.type))
+          .append(", \"task\": ").append(json(task.text))
+          .append(", \"status\": ").append(json(outcome.status))
+          .append(", \"millis\": ").append(outcome.millis)
+          .append(", \"vars\": [");
+        for(int i=0; i<outcome.vars.size(); i++){
+            if(i > 0){sb.append(", ");}
+            sb.append(json(outcome.vars.get(i)));
+        }
+        sb.append("], \"rows\": [");
+        for(int r=0; r<outcome.rows.size(); r++){
+            if(r > 0){sb.append(", ");}
+            sb.append('[');
+            String[] row = outcome.rows.get(r);
+            for(int i=0; i<row.length; i++){
+                if(i > 0){sb.append(", ");}
+                sb.append(json(row[i]));
+            }
+            sb.append(']');
+        }
+        sb.append("]}");
+        writer.write(sb.toString());
+        if(format == Format.NDJSON){writer.write("\n");}
+    }
+
+    // Value quoted for CSV (only if needed)
+    static String csv(String value){
+        if(value == null){return "";}
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0){return value;}
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    // Value as JSON string (or null)
+    static String json(String value){
+        if(value == null){return "null";}
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for(int i=0; i<value.length(); i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if(c < 0x20){sb.append(String.format("\\u%04x", (int) c));}
+                    else{sb.append(c);}
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static void main(String[] args){
+        System.setProperty("java.awt.headless", "true");
+        if(args.length == 0){
+            System.err.println("Usage: OntoCapecBatch tasks-file [csv|json|ndjson] [output-file or -]");
+            System.exit(2);
+        }
+        OntoCapecBatch batch = new OntoCapecBatch();
+        if(args.length > 1){batch.setFormat(Format.valueOf(args[1].toUpperCase()));}
+        boolean toStdout = args.length < 3 || "-".equals(args[2]);
+
+        // The messages of the loading must not mix with the results on stdout
+        PrintStream stdout = System.out;
+        if(toStdout){System.setOut(System.err);}
+        int failed = 0;
+        try {
+            List<Task> tasks = batch.readTasks(args[0]);
+            OntoCapecModel onto = new OntoCapecModel();
+            OntModel m = new OntoCapecSnapshot(onto).open();
+            OutputStream out = toStdout ? stdout : new FileOutputStream(args[2]);
+            try {
+                failed = batch.run(m, tasks, out);
+            } finally {
+                if(toStdout){out.flush();}
+                else{out.close();}
+            }
+            System.err.println(tasks.size() + " tasks run, " + failed + " failed");
+            // The output file of a cold start is written in background
+            if(onto.getPendingWrite() != null){onto.getPendingWrite().get();}
+        } catch (IOException | InterruptedException | ExecutionException ex) {
+            Logger.getLogger(OntoCapecBatch.class.getName()).log(Level.SEVERE, null, ex);
+            failed = 1;
+        } finally {
+            System.setOut(stdout);
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
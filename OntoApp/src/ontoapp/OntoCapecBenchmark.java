@@ -0,0 +1,505 @@
+/**
+ * This class measures the performance of the main phases of the application.
+ * It is not part of the normal flow of OntoApp and it is run through its own
+ * main method (class ontoapp.OntoCapecBenchmark). With the argument --suite
+ * [file] it runs every benchmark for each dataset size and reasoning profile
+ * and writes the measures (time and allocation per operation) in JSON.
+ */
+package ontoapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.ontology.OntModel;
+
+
+public class OntoCapecBenchmark {
+
+    // Attributes for customization
+    int runs = 20; // Measured runs over the CAPEC dataset
+    int warmup = 5; // Runs done before measuring
+    long syntheticSeed = 42; // Seed of the synthetic datasets (same seed, same data)
+    int syntheticRows = 2000000; // Rows of the synthetic dataset
+    int ingestionRows = 50000; // Rows of the synthetic dataset inserted in the model
+    int[] profileRows = {50, 200, -1}; // Sizes of the models for the reasoning profiles
+    long sink = 0; // Consumes the values read, so that they are not optimized away
+
+    // Parameters of the suite (every benchmark runs for each combination)
+    int[] suiteRows = {50, 200, -1}; // Rows of CAPEC (-1 for the full dataset)
+    int[] suiteSyntheticRows = {5000}; // Rows of the synthetic datasets
+    OntoCapecProfile[] suiteProfiles = OntoCapecProfile.values(); // Profiles of the reasoning benchmarks
+    int suiteWarmup = 2; // Operations done before measuring
+    int suiteRuns = 5; // Measured operations
+    String highSeverityQuery = "SELECT ?attackPatternName ?likelihood "
+                            + "WHERE {?attackPattern myns:hasSeverity myns:High. "
+                            + "?attackPattern myns:hasLikelihood ?likelihood. "
+                            + "?attackPattern myns:hasName ?attackPatternName}";
+
+    /**
+     * Operation measured by the suite
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Measure of a benchmark for a combination of parameters
+     */
+    static class Result {
+        final String benchmark;
+        final String dataset;
+        final String profile; // null if the benchmark does not reason
+        final double[] millis; // Time of each measured operation
+        final long allocatedBytes; // Average bytes allocated by an operation (-1 if not available)
+
+        Result(String benchmark, String dataset, String profile, double[] millis, long allocatedBytes){
+            this.benchmark = benchmark;
+            this.dataset = dataset;
+            this.profile = profile;
+            this.millis = millis;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        double mean(){
+            double sum = 0;
+            for(double ms : millis){sum += ms;}
+            return sum / millis.length;
+        }
+
+        // Half width of the 99.9% confidence interval of the mean (normal approximation)
+        double error(){
+            if(millis.length < 2){return 0;}
+            double mean = mean();
+            double sum = 0;
+            for(double ms : millis){sum += (ms - mean) * (ms - mean);}
+            return 3.29 * Math.sqrt(sum / (millis.length - 1)) / Math.sqrt(millis.length);
+        }
+
+        double percentile(double p){
+            double[] sorted = millis.clone();
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+
+        String toJson(){
+            return String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"dataset\": \"%s\", \"profile\": %s, "
+                    + "\"runs\": %d, \"mean_ms\": %.3f, \"error_ms\": %.3f, \"min_ms\": %.3f, \"p50_ms\": %.3f, "
+                    + "\"max_ms\": %.3f, \"alloc_bytes_per_op\": %d}",
+                    benchmark, dataset, profile == null ? "null" : "\"" + profile + "\"", millis.length,
+                    mean(), error(), percentile(0), percentile(0.5), percentile(1), allocatedBytes);
+        }
+    }
+
+    /**
+     * This method reads the whole file with the streaming tokenizer, splitting
+     * also the multi-valued columns
+     * @param path: csv file to read
+     * @return: the number of rows read
+     * @throws IOException if the file cannot be read
+     */
+    public long tokenize(String path) throws IOException {
+        return tokenize(path, -1);
+    }
+
+    /**
+     * This method reads the first rows of a file with the streaming tokenizer
+     * @param path: csv file to read
+     * @param limit: rows to read (-1 for the whole file)
+     * @return: the number of rows read
+     * @throws IOException if the file cannot be read
+     */
+    public long tokenize(String path, int limit) throws IOException {
+        long rows = 0;
+        ArrayList<String> values = new ArrayList<>();
+        CapecCsvReader csv = new CapecCsvReader(new FileReader(path));
+        try {
+            csv.nextRow(); // skip the header
+            while((limit < 0 || rows < limit) && csv.nextRow()){
+                CharSequence[] data = csv.getColumns();
+                sink += data[1].length();
+                sink += CapecCsvReader.splitValues(data[8], values).size();
+                rows++;
+            }
+        } finally {
+            csv.close();
+        }
+        return rows;
+    }
+
+    /**
+     * This method reads the whole file as createModel did before the tokenizer
+     * (readLine and split), to compare the two approaches
+     * @param path: csv file to read
+     * @return: the number of rows read
+     * @throws IOException if the file cannot be read
+     */
+    public long tokenizeLegacy(String path) throws IOException {
+        long rows = 0;
+        BufferedReader br = new BufferedReader(new FileReader(path));
+        try {
+            br.readLine(); // skip the header
+            String line;
+            while((line = br.readLine()) != null){
+                String[] data = line.split(",");
+                sink += data[1].length();
+                rows++;
+            }
+        } finally {
+            br.close();
+        }
+        return rows;
+    }
+
+    /**
+     * This method prints the rows/sec of both tokenizers on a file
+     * @param label: description of the file
+     * @param path: csv file to read
+     * @param runs: number of measured runs
+     * @throws IOException if the file cannot be read
+     */
+    public void reportTokenizer(String label, String path, int runs) throws IOException {
+        for(int i=0; i<warmup; i++){
+            tokenize(path);
+            tokenizeLegacy(path);
+        }
+        long rows = 0;
+        long start = System.nanoTime();
+        for(int i=0; i<runs; i++){rows += tokenize(path);}
+        double streaming = rows / ((System.nanoTime() - start) / 1e9);
+
+        rows = 0;
+        start = System.nanoTime();
+        for(int i=0; i<runs; i++){rows += tokenizeLegacy(path);}
+        double legacy = rows / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("%s: streaming %.0f rows/sec, readLine+split %.0f rows/sec%n",
+                label, streaming, legacy);
+    }
+
+    /**
+     * This method prints the time to build the model (without writing it) for
+     * an increasing number of ingestion threads, up to the available cores
+     * @param label: description of the file
+     * @param path: csv file to read
+     */
+    public void reportIngestion(String label, String path){
+        OntoCapecModel onto = new OntoCapecModel();
+        onto.numRows = -1;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for(int threads=1; ; threads*=2){
+            threads = Math.min(threads, cores);
+            onto.parallelism = threads;
+            onto.buildModel(path); // warm-up
+            long start = System.nanoTime();
+            OntModel m = onto.buildModel(path);
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%s: %d threads, %d triples in %.1f ms%n",
+                    label, threads, m.getBaseModel().size(), millis);
+            if(threads == cores){break;}
+        }
+    }
+
+    /**
+     * This method prints the write throughput of every output format, plain
+     * and compressed
+     * @param m: model to write
+     * @throws IOException if a temporary file cannot be written
+     */
+    public void reportWriters(OntModel m) throws IOException {
+        for(OntoCapecWriter.Format format : OntoCapecWriter.Format.values()){
+            for(boolean gzip : new boolean[] {false, true}){
+                OntoCapecWriter writer = new OntoCapecWriter(format, gzip);
+                File out = File.createTempFile("capec-write", writer.getPath(""));
+                try {
+                    for(int i=0; i<warmup; i++){writer.write(m.getBaseModel().getGraph(), out.getPath());}
+                    System.out.println(writer.write(m.getBaseModel().getGraph(), out.getPath()));
+                } finally {
+                    out.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * This method prints latency and heap of every reasoning profile on models
+     * of different sizes. The workload is the same for all the profiles: 
+     * T-Box classification, instance retrieval and (with inference) validation.
+     * @param dataset: csv file of CAPEC
+     * @param sizes: numbers of rows to insert (-1 for the full dataset)
+     */
+    public void reportProfiles(String dataset, int[] sizes){
+        for(int rows : sizes){
+            OntoCapecModel onto = new OntoCapecModel();
+            onto.numRows = rows;
+            OntModel m = onto.buildModel(dataset);
+            for(OntoCapecProfile profile : OntoCapecProfile.values()){
+                OntoCapecReasoner reasoner = new OntoCapecReasoner();
+                reasoner.setQueryProfile(profile);
+                reasoner.setSubsumptionProfile(profile);
+                reasoner.setInstanceProfile(profile);
+                long heapBefore = usedHeap();
+                long start = System.nanoTime();
+                reasoner.findSubclass(m, "", "");
+                reasoner.instanceChecking(m, "", "Attacker");
+                if(profile.hasInfModel()){
+                    reasoner.getInfModel(m, profile).validate();
+                }
+                double millis = (System.nanoTime() - start) / 1e6;
+                long heap = usedHeap() - heapBefore;
+                System.out.printf("%s rows (%d triples), %s: %.1f ms, %d KB of heap%n",
+                        rows < 0 ? "all" : String.valueOf(rows), m.getBaseModel().size(), profile, millis, heap / 1024);
+                sink += reasoner.hashCode(); // Keep the reasoner (and its models) alive until here
+            }
+        }
+    }
+
+    /**
+     * This method prints heap per triple and query latency of the default
+     * graph and of the compact graph, for the same model
+     * @param path: csv file to insert
+     */
+    public void reportStorage(String path){
+        reportStorage(path, false, null, "Warm-up"); // Loads classes and static data of Jena
+        reportStorage(path, false, null, "Default graph");
+        // The second compact model finds its nodes already in the dictionary of the first one
+        OntoCapecCompactGraph.Dictionary shared = new OntoCapecCompactGraph.Dictionary();
+        reportStorage(path, true, shared, "Compact graph");
+        reportStorage(path, true, shared, "Compact graph (shared dictionary)");
+    }
+
+    // One graph for each call, so that the previous model is not reachable
+    private void reportStorage(String path, boolean compact, OntoCapecCompactGraph.Dictionary dictionary, String label){
+        OntoCapecModel onto = new OntoCapecModel();
+        onto.numRows = -1;
+        onto.indexInstances = false;
+        onto.compactGraph = compact;
+        onto.dictionary = dictionary;
+        long heapBefore = usedHeap();
+        OntModel m = onto.buildModel(path);
+        long heap = usedHeap() - heapBefore;
+        long triples = m.getBaseModel().size();
+
+        OntoCapecReasoner reasoner = new OntoCapecReasoner();
+        reasoner.setInstanceProfile(OntoCapecProfile.NONE);
+        long start = System.nanoTime();
+        for(int i=0; i<runs; i++){sink += reasoner.instanceChecking(m, "", "Id").size();}
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.printf("%s: %d triples, %.1f bytes per triple, retrieval in %.2f ms%n",
+                label, triples, (double) heap / triples, millis);
+        sink += m.hashCode(); // Keep the model alive until here
+    }
+
+    /**
+     * This method measures an operation: time and bytes allocated by the
+     * current thread for each run, after the warm-up
+     * @param benchmark: name of the benchmark
+     * @param dataset: name of the dataset
+     * @param profile: reasoning profile (null if not used)
+     * @param op: operation to measure
+     * @return: the measure
+     * @throws Exception if the operation fails
+     */
+    public Result measure(String benchmark, String dataset, OntoCapecProfile profile, Operation op) throws Exception {
+        return measure(benchmark, dataset, profile, null, op);
+    }
+
+    /**
+     * This method measures an operation after a preparation that is not
+     * measured (done before each run, also of the warm-up)
+     * @param benchmark: name of the benchmark
+     * @param dataset: name of the dataset
+     * @param profile: reasoning profile (null if not used)
+     * @param setup: preparation of each run (null for none)
+     * @param op: operation to measure
+     * @return: the measure
+     * @throws Exception if the operation fails
+     */
+    public Result measure(String benchmark, String dataset, OntoCapecProfile profile, Operation setup, Operation op) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocBean = null;
+        if(bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()){
+            allocBean = (com.sun.management.ThreadMXBean) bean;
+            allocBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        long thread = Thread.currentThread().getId();
+
+        for(int i=0; i<suiteWarmup; i++){
+            if(setup != null){setup.run();}
+            op.run();
+        }
+        double[] millis = new double[suiteRuns];
+        long allocated = 0;
+        for(int i=0; i<suiteRuns; i++){
+            if(setup != null){setup.run();}
+            long allocBefore = allocBean == null ? 0 : allocBean.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            op.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+            if(allocBean != null){allocated += allocBean.getThreadAllocatedBytes(thread) - allocBefore;}
+        }
+        Result result = new Result(benchmark, dataset, profile == null ? null : profile.name(), millis,
+                allocBean == null ? -1 : allocated / suiteRuns);
+        System.out.printf(Locale.ROOT, "%-12s %-16s %-10s %10.3f +- %.3f ms/op %12d B/op%n", benchmark, dataset,
+                profile == null ? "-" : profile, result.mean(), result.error(), result.allocatedBytes);
+        return result;
+    }
+
+    /**
+     * This method runs every benchmark of the suite on a dataset: parsing,
+     * ingestion and serialization of the model, then each reasoning task with
+     * each profile. Each reasoning operation has a new reasoner and a new copy
+     * of the model (made before the clock starts): the inference models and the
+     * indexes kept for a model (OntoCapecClassIndex, OntoCapecInstanceIndex,
+     * the closure, ...) are not reused, so building them is part of the measure
+     * @param dataset: name of the dataset
+     * @param path: csv file of the dataset
+     * @param rows: rows to insert (-1 for the whole file)
+     * @param results: list where to add the measures
+     * @throws Exception if a benchmark fails
+     */
+    public void runSuite(String dataset, final String path, final int rows, List<Result> results) throws Exception {
+        final OntoCapecModel onto = new OntoCapecModel();
+        onto.numRows = rows;
+        results.add(measure("parse", dataset, null, () -> sink += tokenize(path, rows)));
+        results.add(measure("ingest", dataset, null, () -> sink += onto.buildModel(path).getBaseModel().size()));
+
+        final OntModel m = onto.buildModel(path);
+        final OntoCapecWriter writer = new OntoCapecWriter(onto.outputFormat, onto.gzipOutput);
+        final File out = File.createTempFile("capec-suite", writer.getPath(""));
+        try {
+            results.add(measure("serialize", dataset, null, () -> sink += writer.write(m.getBaseModel().getGraph(), out.getPath()).bytes));
+        } finally {
+            out.delete();
+        }
+
+        final OntModel[] copy = new OntModel[1];
+        final Operation fresh = () -> copy[0] = copyModel(onto, m);
+        for(final OntoCapecProfile profile : suiteProfiles){
+            results.add(measure("query", dataset, profile, fresh, () -> sink += newReasoner(profile).makeQuery(copy[0], highSeverityQuery).size()));
+            results.add(measure("subsumption", dataset, profile, fresh, () -> sink += newReasoner(profile).findSubclass(copy[0], "", "").size()));
+            results.add(measure("instance", dataset, profile, fresh, () -> sink += newReasoner(profile).instanceChecking(copy[0], "", "Attacker").size()));
+            // Validation needs an inference model
+            if(profile.hasInfModel()){
+                results.add(measure("consistency", dataset, profile, fresh, () -> sink += newReasoner(profile).detectInconsistency(copy[0], false, false).size()));
+            }
+        }
+    }
+
+    // Copy of the model on a new graph: nothing computed for the model is attached to it
+    private OntModel copyModel(OntoCapecModel onto, OntModel m){
+        OntModel copy = onto.createEmptyModel();
+        GraphUtil.addInto(copy.getBaseModel().getGraph(), m.getBaseModel().getGraph());
+        copy.rebind();
+        return copy;
+    }
+
+    // Reasoner with the same profile for all the tasks
+    private OntoCapecReasoner newReasoner(OntoCapecProfile profile){
+        OntoCapecReasoner reasoner = new OntoCapecReasoner();
+        reasoner.setQueryProfile(profile);
+        reasoner.setSubsumptionProfile(profile);
+        reasoner.setInstanceProfile(profile);
+        reasoner.setConsistencyProfile(profile);
+        return reasoner;
+    }
+
+    /**
+     * This method runs the suite on CAPEC (suiteRows) and on the synthetic
+     * datasets (suiteSyntheticRows)
+     * @param capecPath: csv file of CAPEC
+     * @return: the measures
+     * @throws Exception if a benchmark fails
+     */
+    public List<Result> runSuite(String capecPath) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for(int rows : suiteRows){
+            runSuite("capec-" + (rows < 0 ? "all" : String.valueOf(rows)), capecPath, rows, results);
+        }
+        for(int rows : suiteSyntheticRows){
+            File synthetic = File.createTempFile("capec-synthetic", ".csv");
+            try {
+                new OntoCapecGenerator(syntheticSeed, rows).write(synthetic.getPath());
+                runSuite("synthetic-" + rows, synthetic.getPath(), -1, results);
+            } finally {
+                synthetic.delete();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * This method writes the measures as a JSON array, to compare releases
+     * @param results: the measures
+     * @param path: file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeResults(List<Result> results, String path) throws IOException {
+        BufferedWriter out = new BufferedWriter(new FileWriter(path));
+        try {
+            out.write("[\n");
+            for(int i=0; i<results.size(); i++){
+                out.write("  " + results.get(i).toJson() + (i < results.size() - 1 ? ",\n" : "\n"));
+            }
+            out.write("]\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    // Heap used after a garbage collection
+    private long usedHeap(){
+        Runtime rt = Runtime.getRuntime();
+        // Weak references are cleared in a collection and their referents freed in the next ones
+        for(int i=0; i<5; i++){System.gc();}
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        OntoCapecBenchmark bench = new OntoCapecBenchmark();
+        String dataset = new OntoCapecModel().datasetPath;
+
+        // Suite with machine-readable output (optional file name)
+        if(args.length > 0 && "--suite".equals(args[0])){
+            String output = args.length > 1 ? args[1] : "benchmark-results.json";
+            bench.writeResults(bench.runSuite(dataset), output);
+            System.out.println("Results written in " + output);
+            return;
+        }
+
+        // Tokenizer over the CAPEC dataset and over a synthetic one
+        bench.reportTokenizer("CAPEC dataset", dataset, bench.runs);
+        File synthetic = File.createTempFile("capec-synthetic", ".csv");
+        synthetic.deleteOnExit();
+        new OntoCapecGenerator(bench.syntheticSeed, bench.syntheticRows).write(synthetic.getPath());
+        bench.reportTokenizer("Synthetic dataset (" + bench.syntheticRows + " rows)",
+                synthetic.getPath(), 1);
+
+        // Model build with single thread and parallel ingestion
+        bench.reportIngestion("CAPEC dataset", dataset);
+        new OntoCapecGenerator(bench.syntheticSeed, bench.ingestionRows).write(synthetic.getPath());
+        bench.reportIngestion("Synthetic dataset (" + bench.ingestionRows + " rows)", synthetic.getPath());
+        synthetic.delete();
+        
+        // Write of the full model in every format
+        OntoCapecModel onto = new OntoCapecModel();
+        onto.numRows = -1;
+        bench.reportWriters(onto.buildModel(dataset));
+        
+        // Memory of the default and of the compact graph
+        bench.reportStorage(dataset);
+        
+        // Latency and memory of the reasoning profiles
+        bench.reportProfiles(dataset, bench.profileRows);
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * This class classifies the T-Box once: each named class gets a dense integer
+ * id and a bitset of all its super-classes and sub-classes (transitive closure
+ * of the asserted rdfs:subClassOf). Subsumption becomes a bit lookup and the
+ * index follows the new classes and axioms added to the model afterwards.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.listeners.StatementListener;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+
+public class OntoCapecClassIndex extends StatementListener {
+
+    // Dense id of each named class
+    final HashMap<Node, Integer> ids = new HashMap<>();
+    final ArrayList<Node> classes = new ArrayList<>();
+
+    // Closure of each class (by id), the class itself excluded
+    final ArrayList<BitSet> supers = new ArrayList<>();
+    final ArrayList<BitSet> subs = new ArrayList<>();
+
+    // Index of each model already observed (one listener for each model)
+    static final OntoCapecRegistry<OntoCapecClassIndex> indexes = new OntoCapecRegistry<>(true);
+
+    // True when an axiom has been removed: the closure must be built again
+    boolean stale = false;
+
+    // Incremented at every change of the closure
+    long version = 0;
+
+    /**
+     * This method returns the index of a model: it is built the first time,
+     * then kept up to date with the classes and the subclass axioms added
+     * @param m: model to index (base model, without inference)
+     * @return: the index
+     */
+    public static OntoCapecClassIndex of(Model m){
+        OntoCapecClassIndex index = indexes.get(m.getGraph(), () -> {
+            OntoCapecClassIndex created = new OntoCapecClassIndex();
+            synchronized(created){
+                created.load(m);
+                m.register(created);
+            }
+            return created;
+        });
+        index.refresh(m);
+        return index;
+    }
+
+    private void load(Model m){
+        load(m.listStatements(null, RDF.type, OWL.Class));
+        load(m.listStatements(null, RDF.type, RDFS.Class));
+        load(m.listStatements(null, RDFS.subClassOf, (RDFNode) null));
+    }
+
+    private void load(StmtIterator it){
+        try {
+            while(it.hasNext()){addedStatement(it.next());}
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * This method builds the closure again if axioms have been removed since
+     * the index was built (removals cannot be applied to a closure)
+     * @param m: model of the index
+     */
+    synchronized void refresh(Model m){
+        if(!stale){return;}
+        ids.clear();
+        classes.clear();
+        supers.clear();
+        subs.clear();
+        stale = false;
+        version++;
+        load(m);
+    }
+
+    // Getters of the index
+    public synchronized boolean isStale() {return stale;}
+    public synchronized long getVersion() {return version;}
+    public synchronized int size() {return classes.size();}
+    public synchronized Node getClass(int id) {return classes.get(id);}
+
+    /**
+     * This method returns the id of a class
+     * @param c: the class
+     * @return: the id or -1 if c is not a named class of the model
+     */
+    public synchronized int getId(Node c){
+        Integer id = ids.get(c);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * This method adds a named class to the index (nothing if already present)
+     * @param c: the class
+     * @return: the id of the class
+     */
+    public synchronized int addClass(Node c){
+        Integer id = ids.get(c);
+        if(id != null){return id;}
+        id = classes.size();
+        ids.put(c, id);
+        classes.add(c);
+        version++;
+        supers.add(new BitSet());
+        subs.add(new BitSet());
+        return id;
+    }
+
+    /**
+     * This method adds the axiom sub subClassOf sup, updating the closure of
+     * all the classes below sub and above sup
+     * @param sub: the sub-class
+     * @param sup: the super-class
+     */
+    public synchronized void addSubClass(Node sub, Node sup){
+        int a = addClass(sub);
+        int b = addClass(sup);
+        if(a == b || supers.get(a).get(b)){return;}
+        version++;
+
+        // Everything below a (a included) gets everything above b (b included)
+        BitSet below = (BitSet) subs.get(a).clone();
+        below.set(a);
+        BitSet above = (BitSet) supers.get(b).clone();
+        above.set(b);
+        for(int x = below.nextSetBit(0); x >= 0; x = below.nextSetBit(x + 1)){supers.get(x).or(above);}
+        for(int y = above.nextSetBit(0); y >= 0; y = above.nextSetBit(y + 1)){subs.get(y).or(below);}
+        for(int x = below.nextSetBit(0); x >= 0; x = below.nextSetBit(x + 1)){supers.get(x).clear(x);}
+        for(int y = above.nextSetBit(0); y >= 0; y = above.nextSetBit(y + 1)){subs.get(y).clear(y);}
+    }
+
+    /**
+     * This method checks if C is subsumed by D (every class subsumes itself)
+     * @param c: concept C
+     * @param d: concept D
+     * @return: true if C subClassOf D
+     */
+    public synchronized boolean isSubClassOf(Node c, Node d){
+        Integer a = ids.get(c);
+        Integer b = ids.get(d);
+        if(a == null || b == null){return false;}
+        return a.equals(b) || supers.get(a).get(b);
+    }
+
+    /**
+     * @param c: a class
+     * @return: a copy of the ids of its super-classes (empty if unknown)
+     */
+    public synchronized BitSet getSuperClasses(Node c){
+        Integer id = ids.get(c);
+        return id == null ? new BitSet() : (BitSet) supers.get(id).clone();
+    }
+
+    /**
+     * @param c: a class
+     * @return: a copy of the ids of its sub-classes (empty if unknown)
+     */
+    public synchronized BitSet getSubClasses(Node c){
+        Integer id = ids.get(c);
+        return id == null ? new BitSet() : (BitSet) subs.get(id).clone();
+    }
+
+    /**
+     * This method returns the classification of the T-Box: all the pairs
+     * (super-class, sub-class) of distinct classes
+     * @return: the pairs as arrays {superclass, subclass}
+     */
+    public synchronized List<Node[]> classification(){
+        List<Node[]> pairs = new ArrayList<>();
+        for(int sup=0; sup<classes.size(); sup++){
+            BitSet below = subs.get(sup);
+            for(int sub = below.nextSetBit(0); sub >= 0; sub = below.nextSetBit(sub + 1)){
+                pairs.add(new Node[] {classes.get(sup), classes.get(sub)});
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * This method returns the least common ancestors of two classes: the
+     * common super-classes (themselves included) with no common sub-class
+     * @param c: first class
+     * @param d: second class
+     * @return: the least common ancestors (empty if they have no common ancestor)
+     */
+    public synchronized List<Node> leastCommonAncestors(Node c, Node d){
+        List<Node> result = new ArrayList<>();
+        Integer a = ids.get(c);
+        Integer b = ids.get(d);
+        if(a == null || b == null){return result;}
+
+        BitSet common = (BitSet) supers.get(a).clone();
+        common.set(a);
+        BitSet aboveB = (BitSet) supers.get(b).clone();
+        aboveB.set(b);
+        common.and(aboveB);
+        for(int x = common.nextSetBit(0); x >= 0; x = common.nextSetBit(x + 1)){
+            if(!subs.get(x).intersects(common)){result.add(classes.get(x));}
+        }
+        return result;
+    }
+
+    // Classes (named) and subclass axioms added to the model
+    @Override
+    public synchronized void addedStatement(Statement s){
+        Node subject = s.getSubject().asNode();
+        Node object = s.getObject().asNode();
+        if(!subject.isURI() || !object.isURI()){return;}
+        if(s.getPredicate().equals(RDF.type) && (object.equals(OWL.Class.asNode()) || object.equals(RDFS.Class.asNode()))){
+            addClass(subject);
+        } else if(s.getPredicate().equals(RDFS.subClassOf)){
+            addSubClass(subject, object);
+        }
+    }
+
+    // A closure cannot shrink incrementally: the index is marked to be built again
+    // (also when a class declaration goes away, the class may no longer be a class)
+    @Override
+    public synchronized void removedStatement(Statement s){
+        if(s.getPredicate().equals(RDFS.subClassOf)){stale = true;}
+        else if(s.getPredicate().equals(RDF.type)){
+            RDFNode object = s.getObject();
+            if(object.equals(OWL.Class) || object.equals(RDFS.Class)){stale = true;}
+        }
+    }
+
+    @Override
+    public synchronized void notifyEvent(Model m, Object event){
+        if(event == GraphEvents.removeAll){stale = true;}
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * This class keeps the closure of a model materialized in a plain graph: the
+ * asserted triples plus the ones entailed by the hierarchy of the classes, by
+ * domain and range of the properties and by the symmetric properties (as
+ * relatedPattern). Queries on it need no reasoner, so they run at the speed of
+ * the graph. The closure is computed with a semi-naive evaluation: each new
+ * triple is joined once with the closure and only the triples not yet known go
+ * on, so the triples added to the model later cost only their consequences.
+ * A removal rebuilds the closure at the next request (an entailed triple can
+ * have other derivations). It can be saved and loaded (see OntoCapecSnapshot).
+ */
+package ontoapp;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.listeners.StatementListener;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+
+public class OntoCapecClosure extends StatementListener {
+
+    // Closure of each model already observed (one listener for each model)
+    static final OntoCapecRegistry<OntoCapecClosure> closures = new OntoCapecRegistry<>(true);
+
+    // Vocabulary of the rules
+    static final Node type = RDF.Nodes.type;
+    static final Node subClassOf = RDFS.Nodes.subClassOf;
+    static final Node domain = RDFS.Nodes.domain;
+    static final Node range = RDFS.Nodes.range;
+    static final Node symmetric = OWL.SymmetricProperty.asNode();
+
+    // Asserted and entailed triples
+    final Graph closure = GraphFactory.createGraphMem();
+    final Model view = ModelFactory.createModelForGraph(new GraphReadOnly(closure));
+
+    // Triples added to the closure and not yet joined with it
+    final ArrayDeque<Triple> delta = new ArrayDeque<>();
+
+    long entailed = 0; // Triples added to the closure by the rules
+    boolean stale = false; // True when a triple has been removed from the model
+
+    /**
+     * This method returns the closure of a model: it is computed the first
+     * time, then kept up to date with the triples added
+     * @param m: model to close (base model, without inference)
+     * @return: the closure
+     */
+    public static OntoCapecClosure of(Model m){
+        return of(m, null);
+    }
+
+    /**
+     * This method returns the closure of a model, starting from a closure
+     * computed before (for example saved with the snapshot) if the model has
+     * no closure yet. The closure given is used only if it has all the triples
+     * of the model, otherwise it is computed again.
+     * @param m: model to close (base model, without inference)
+     * @param saved: closure computed before (null to compute it)
+     * @return: the closure
+     */
+    public static OntoCapecClosure of(Model m, Graph saved){
+        OntoCapecClosure c = closures.get(m.getGraph(), () -> {
+            OntoCapecClosure created = new OntoCapecClosure();
+            synchronized(created){
+                if(saved == null || !created.restore(m.getGraph(), saved)){created.load(m.getGraph());}
+                m.register(created);
+            }
+            return created;
+        });
+        c.refresh(m);
+        return c;
+    }
+
+    // Computes the closure of all the triples of g
+    private void load(Graph g){
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        ExtendedIterator<Triple> it = g.find();
+        try {
+            while(it.hasNext()){assertTriple(it.next());}
+        } finally {
+            it.close();
+        }
+        propagate();
+        metrics.stop("closure.build", sample);
+    }
+
+    // Takes a closure computed before, if it has all the triples of g
+    private boolean restore(Graph g, Graph saved){
+        if(saved.size() < g.size()){return false;}
+        ExtendedIterator<Triple> it = g.find();
+        try {
+            while(it.hasNext()){
+                if(!saved.contains(it.next())){return false;}
+            }
+        } finally {
+            it.close();
+        }
+        GraphUtil.addInto(closure, saved);
+        entailed = closure.size() - g.size();
+        return true;
+    }
+
+    /**
+     * This method computes the closure again if triples have been removed
+     * since it was computed
+     * @param m: model of the closure
+     */
+    synchronized void refresh(Model m){
+        if(!stale){return;}
+        closure.clear();
+        delta.clear();
+        entailed = 0;
+        stale = false;
+        load(m.getGraph());
+    }
+
+    // Getters of the closure
+    public synchronized boolean isStale() {return stale;}
+    public synchronized int size() {return closure.size();}
+    public synchronized long getEntailed() {return entailed;}
+
+    /**
+     * This method returns the closure as a read-only model: it has no reasoner,
+     * but it is kept up to date with the triples added to the model
+     * @return: the model of the closure (shared)
+     */
+    public Model getModel() {return view;}
+
+    /**
+     * This method returns the closure as a graph, for example to save it (do
+     * not change it and do not read it while the model changes)
+     * @return: the graph of the closure
+     */
+    public Graph getGraph() {return closure;}
+
+    // Adds an asserted triple (nothing to do if it was already entailed)
+    void assertTriple(Triple t){
+        if(closure.contains(t)){return;}
+        closure.add(t);
+        delta.add(t);
+    }
+
+    // Adds an entailed triple
+    void entail(Node s, Node p, Node o){
+        Triple t = Triple.create(s, p, o);
+        if(closure.contains(t)){return;}
+        closure.add(t);
+        delta.add(t);
+        entailed++;
+    }
+
+    // Joins the new triples with the closure until nothing new is entailed
+    void propagate(){
+        long before = entailed;
+        while(!delta.isEmpty()){apply(delta.poll());}
+        OntoCapecMetrics.get().increment("closure.entailed", entailed - before);
+    }
+
+    // Triples of the closure matching a pattern (copied: the closure changes meanwhile)
+    List<Triple> match(Node s, Node p, Node o){
+        return closure.find(s, p, o).toList();
+    }
+
+    /**
+     * This method applies the rules with the new triple t in any premise; the
+     * other premise is looked up in the closure
+     * @param t: triple just added to the closure
+     */
+    void apply(Triple t){
+        Node s = t.getSubject();
+        Node p = t.getPredicate();
+        Node o = t.getObject();
+
+        if(p.equals(type)){
+            // x type C, C subClassOf D -> x type D
+            for(Triple sup : match(o, subClassOf, Node.ANY)){entail(s, type, sup.getObject());}
+            // p type SymmetricProperty, x p y -> y p x
+            if(o.equals(symmetric)){
+                for(Triple d : match(Node.ANY, s, Node.ANY)){
+                    if(!d.getObject().isLiteral()){entail(d.getObject(), s, d.getSubject());}
+                }
+            }
+        } else if(p.equals(subClassOf)){
+            // x type C, C subClassOf D -> x type D
+            for(Triple member : match(Node.ANY, type, s)){entail(member.getSubject(), type, o);}
+            // B subClassOf C, C subClassOf D -> B subClassOf D
+            for(Triple sup : match(o, subClassOf, Node.ANY)){entail(s, subClassOf, sup.getObject());}
+            for(Triple sub : match(Node.ANY, subClassOf, s)){entail(sub.getSubject(), subClassOf, o);}
+        } else if(p.equals(domain)){
+            // p domain C, x p y -> x type C
+            for(Triple d : match(Node.ANY, s, Node.ANY)){entail(d.getSubject(), type, o);}
+        } else if(p.equals(range)){
+            // p range C, x p y -> y type C
+            for(Triple d : match(Node.ANY, s, Node.ANY)){
+                if(!d.getObject().isLiteral()){entail(d.getObject(), type, o);}
+            }
+        }
+
+        // The triple as data of its property: domain, range and symmetry
+        for(Triple d : match(p, domain, Node.ANY)){entail(s, type, d.getObject());}
+        if(!o.isLiteral()){
+            for(Triple r : match(p, range, Node.ANY)){entail(o, type, r.getObject());}
+            if(closure.contains(p, type, symmetric)){entail(o, p, s);}
+        }
+    }
+
+    // Semi-naive step for each triple added to the model
+    @Override
+    public synchronized void addedStatement(Statement s){
+        if(stale){return;}
+        assertTriple(s.asTriple());
+        propagate();
+    }
+
+    // An entailed triple can have other derivations: the closure is marked to be computed again
+    @Override
+    public synchronized void removedStatement(Statement s){
+        stale = true;
+    }
+
+    @Override
+    public synchronized void notifyEvent(Model m, Object event){
+        if(event == GraphEvents.removeAll){stale = true;}
+    }
+}
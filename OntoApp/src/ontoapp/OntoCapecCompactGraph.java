@@ -0,0 +1,332 @@
+/**
+ * This class is a compact graph for CAPEC models: every node is encoded once in
+ * a dictionary (its own, or one shared on purpose by the graphs of many models
+ * of the same data: the dictionary never forgets a node) and the triples of each
+ * predicate are kept as pairs (subject, object) of ids packed in a long array.
+ * The pairs are sorted by subject when the graph is read after a change, and
+ * the index by object is built only when an object is looked up. A triple costs
+ * from 8 to 12 bytes instead of the objects and hash indexes of GraphMem, so
+ * many models can stay in memory together. It is a Jena Graph, so the models,
+ * the reasoners and the queries work on it as on the default graph.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.jena.graph.Capabilities;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.AllCapabilities;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.util.iterator.NullIterator;
+
+
+public class OntoCapecCompactGraph extends GraphBase {
+
+    /**
+     * Dictionary of the nodes: each node has a dense id
+     */
+    public static class Dictionary {
+        final HashMap<Node, Integer> ids = new HashMap<>();
+        volatile Node[] nodes = new Node[1024];
+        int size = 0;
+
+        /**
+         * This method returns the id of a node, adding it if it is new
+         * @param n: the node
+         * @return: the id of the node
+         */
+        public synchronized int encode(Node n){
+            Integer id = ids.get(n);
+            if(id != null){return id;}
+            if(size == nodes.length){nodes = Arrays.copyOf(nodes, size * 2);}
+            nodes[size] = n;
+            ids.put(n, size);
+            return size++;
+        }
+
+        /**
+         * @param n: the node
+         * @return: the id of the node, or -1 if it is not in the dictionary
+         */
+        public synchronized int lookup(Node n){
+            Integer id = ids.get(n);
+            return id == null ? -1 : id;
+        }
+
+        // The ids are never reused, so a node can be read without lock
+        public Node decode(int id) {return nodes[id];}
+        public synchronized int size() {return size;}
+    }
+
+    /**
+     * Triples of one predicate
+     */
+    static class Table {
+        final Node predicate;
+        long[] pairs = new long[16]; // subject id in the high half, object id in the low half
+        int size = 0;
+        int sorted = 0; // The first pairs are sorted and distinct
+        int[] byObject = null; // Positions of the pairs sorted by object (built on demand)
+
+        Table(Node predicate){
+            this.predicate = predicate;
+        }
+    }
+
+    final Dictionary dictionary;
+    final HashMap<Integer, Table> tables = new HashMap<>();
+    int modifications = 0; // To detect changes during an iteration
+
+    public OntoCapecCompactGraph(){
+        this(new Dictionary());
+    }
+
+    /**
+     * @param dictionary: dictionary of the nodes (it can be shared by many graphs)
+     */
+    public OntoCapecCompactGraph(Dictionary dictionary){
+        this.dictionary = dictionary;
+    }
+
+    // Getter of the dictionary
+    public Dictionary getDictionary() {return dictionary;}
+
+    static long pair(int s, int o) {return ((long) s << 32) | (o & 0xffffffffL);}
+    static int subjectOf(long pair) {return (int) (pair >>> 32);}
+    static int objectOf(long pair) {return (int) pair;}
+
+    /**
+     * This method sorts the pairs added since the last read and drops the
+     * duplicates
+     * @param t: table to sort
+     */
+    synchronized void compact(Table t){
+        if(t.sorted == t.size){return;}
+        Arrays.sort(t.pairs, 0, t.size);
+        int n = 0;
+        for(int i=0; i<t.size; i++){
+            if(n == 0 || t.pairs[i] != t.pairs[n - 1]){t.pairs[n++] = t.pairs[i];}
+        }
+        t.size = n;
+        t.sorted = n;
+        t.byObject = null;
+    }
+
+    /**
+     * This method builds the positions of the pairs sorted by object
+     * @param t: table to index (already sorted)
+     */
+    synchronized void indexObjects(Table t){
+        if(t.byObject != null){return;}
+        long[] keys = new long[t.size];
+        for(int i=0; i<t.size; i++){keys[i] = pair(objectOf(t.pairs[i]), i);}
+        Arrays.sort(keys);
+        int[] byObject = new int[t.size];
+        for(int i=0; i<t.size; i++){byObject[i] = objectOf(keys[i]);}
+        t.byObject = byObject;
+    }
+
+    // First position of the sorted pairs not lower than key
+    static int lowerBound(long[] pairs, int size, long key){
+        int low = 0, high = size;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(pairs[mid] < key){low = mid + 1;}
+            else{high = mid;}
+        }
+        return low;
+    }
+
+    // First position (sorted by object) with object not lower than o
+    static int lowerBoundObject(Table t, int o){
+        int low = 0, high = t.size;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(objectOf(t.pairs[t.byObject[mid]]) < o){low = mid + 1;}
+            else{high = mid;}
+        }
+        return low;
+    }
+
+    @Override
+    public void performAdd(Triple t){
+        int s = dictionary.encode(t.getSubject());
+        int p = dictionary.encode(t.getPredicate());
+        int o = dictionary.encode(t.getObject());
+        long key = pair(s, o);
+        synchronized(this){
+            Table table = tables.get(p);
+            if(table == null){
+                table = new Table(t.getPredicate());
+                tables.put(p, table);
+            }
+            if(table.sorted == table.size){
+                // Sorted part: skip duplicates, keep it sorted if the pair comes last
+                int pos = lowerBound(table.pairs, table.size, key);
+                if(pos < table.size && table.pairs[pos] == key){return;}
+                if(pos == table.size){table.sorted++;}
+            }
+            if(table.size == table.pairs.length){table.pairs = Arrays.copyOf(table.pairs, table.size * 2);}
+            table.pairs[table.size++] = key;
+            table.byObject = null;
+            modifications++;
+        }
+    }
+
+    @Override
+    public void performDelete(Triple t){
+        int s = dictionary.lookup(t.getSubject());
+        int p = dictionary.lookup(t.getPredicate());
+        int o = dictionary.lookup(t.getObject());
+        if(s < 0 || p < 0 || o < 0){return;}
+        synchronized(this){
+            Table table = tables.get(p);
+            if(table == null){return;}
+            compact(table);
+            long key = pair(s, o);
+            int pos = lowerBound(table.pairs, table.size, key);
+            if(pos == table.size || table.pairs[pos] != key){return;}
+            System.arraycopy(table.pairs, pos + 1, table.pairs, pos, table.size - pos - 1);
+            table.size--;
+            table.sorted--;
+            table.byObject = null;
+            if(table.size == 0){tables.remove(p);}
+            modifications++;
+        }
+    }
+
+    @Override
+    public void clear(){
+        synchronized(this){
+            tables.clear();
+            modifications++;
+        }
+        getEventManager().notifyEvent(this, GraphEvents.removeAll);
+    }
+
+    @Override
+    protected synchronized int graphBaseSize(){
+        int size = 0;
+        for(Table t : tables.values()){
+            compact(t);
+            size += t.size;
+        }
+        return size;
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t){
+        if(!t.isConcrete()){return super.graphBaseContains(t);}
+        int s = dictionary.lookup(t.getSubject());
+        int p = dictionary.lookup(t.getPredicate());
+        int o = dictionary.lookup(t.getObject());
+        if(s < 0 || p < 0 || o < 0){return false;}
+        synchronized(this){
+            Table table = tables.get(p);
+            if(table == null){return false;}
+            compact(table);
+            long key = pair(s, o);
+            int pos = lowerBound(table.pairs, table.size, key);
+            return pos < table.size && table.pairs[pos] == key;
+        }
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple m){
+        Node sm = m.getMatchSubject();
+        Node pm = m.getMatchPredicate();
+        Node om = m.getMatchObject();
+        int s = sm == null ? -1 : dictionary.lookup(sm);
+        int p = pm == null ? -1 : dictionary.lookup(pm);
+        int o = om == null ? -1 : dictionary.lookup(om);
+        // A node never seen cannot be in any triple
+        if((sm != null && s < 0) || (pm != null && p < 0) || (om != null && o < 0)){return NullIterator.instance();}
+
+        List<TableIterator> parts = new ArrayList<>();
+        synchronized(this){
+            if(pm != null){
+                Table table = tables.get(p);
+                if(table != null){parts.add(findIn(table, sm != null, s, om != null, o));}
+            } else{
+                for(Table table : tables.values()){parts.add(findIn(table, sm != null, s, om != null, o));}
+            }
+        }
+        if(parts.size() == 1){return parts.get(0);}
+        ExtendedIterator<Triple> result = NullIterator.instance();
+        for(TableIterator part : parts){result = result.andThen(part);}
+        return result;
+    }
+
+    // Range of the pairs of a table that match the pattern
+    TableIterator findIn(Table t, boolean hasS, int s, boolean hasO, int o){
+        compact(t);
+        if(hasS && hasO){
+            int pos = lowerBound(t.pairs, t.size, pair(s, o));
+            boolean found = pos < t.size && t.pairs[pos] == pair(s, o);
+            return new TableIterator(t, null, pos, found ? pos + 1 : pos);
+        } else if(hasS){
+            int from = lowerBound(t.pairs, t.size, pair(s, 0));
+            int to = lowerBound(t.pairs, t.size, pair(s + 1, 0));
+            return new TableIterator(t, null, from, to);
+        } else if(hasO){
+            indexObjects(t);
+            return new TableIterator(t, t.byObject, lowerBoundObject(t, o), lowerBoundObject(t, o + 1));
+        }
+        return new TableIterator(t, null, 0, t.size);
+    }
+
+    /**
+     * Iterator over a range of the pairs of a table (in order of subject, or of
+     * object if positions is given). The graph cannot be changed meanwhile.
+     */
+    class TableIterator extends NiceIterator<Triple> {
+        final Table table;
+        final long[] pairs;
+        final int[] positions;
+        final int expected = modifications;
+        int next;
+        final int end;
+
+        TableIterator(Table table, int[] positions, int from, int to){
+            this.table = table;
+            this.pairs = table.pairs;
+            this.positions = positions;
+            this.next = from;
+            this.end = to;
+        }
+
+        @Override
+        public boolean hasNext(){
+            if(expected != modifications){throw new ConcurrentModificationException();}
+            return next < end;
+        }
+
+        @Override
+        public Triple next(){
+            if(!hasNext()){throw new NoSuchElementException();}
+            long key = pairs[positions == null ? next : positions[next]];
+            next++;
+            return Triple.create(dictionary.decode(subjectOf(key)), table.predicate, dictionary.decode(objectOf(key)));
+        }
+    }
+
+    @Override
+    public Capabilities getCapabilities(){
+        if(capabilities == null){
+            capabilities = new AllCapabilities() {
+                @Override public boolean iteratorRemoveAllowed() {return false;}
+                @Override public boolean handlesLiteralTyping() {return false;}
+            };
+        }
+        return capabilities;
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * This class answers coverage questions on the mitigations: which attacks are
+ * left uncovered by the mitigations deployed, which weaknesses they still
+ * expose and which mitigations cover the most of them. The attacks get dense
+ * ids and the incidence of reduces (mitigation x attack) and exploits
+ * (weakness x attack) is kept as rows of bits, so a portfolio of mitigations
+ * is covered with an OR of its rows and compared with AND/popcount, 64 attacks
+ * for each operation. Many portfolios are evaluated in parallel on a fork-join
+ * pool. The matrices are a snapshot: they are built again when the model changes.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+
+
+public class OntoCapecCoverage {
+
+    // Last matrices built for each model
+    static final OntoCapecRegistry<OntoCapecCoverage> coverages = new OntoCapecRegistry<>(true);
+
+    /**
+     * Coverage of a portfolio of mitigations
+     */
+    public static class Evaluation {
+        final int covered;
+        final int uncovered;
+        final int exposed; // Weaknesses exploited by some attack not covered
+
+        Evaluation(int covered, int uncovered, int exposed){
+            this.covered = covered;
+            this.uncovered = uncovered;
+            this.exposed = exposed;
+        }
+
+        public int getCovered() {return covered;}
+        public int getUncovered() {return uncovered;}
+        public int getExposed() {return exposed;}
+        public double getCoverage() {return covered + uncovered == 0 ? 1 : (double) covered / (covered + uncovered);}
+    }
+
+    final String myns;
+
+    // Dense ids of attacks, mitigations and weaknesses
+    final HashMap<Node, Integer> attackIds = new HashMap<>();
+    final ArrayList<Node> attacks = new ArrayList<>();
+    final HashMap<Node, Integer> mitigationIds = new HashMap<>();
+    final ArrayList<Node> mitigations = new ArrayList<>();
+    final HashMap<Node, Integer> weaknessIds = new HashMap<>();
+    final ArrayList<Node> weaknesses = new ArrayList<>();
+
+    // Rows of bits over the attacks (words of 64 attacks)
+    int words;
+    long[] all; // All the attacks
+    long[][] reduces; // Attacks reduced by each mitigation
+    long[][] exploitedBy; // Attacks that exploit each weakness
+
+    long version = -1; // Version of the model (see OntoCapecVersion) when the matrices were built
+
+    // Attributes for customization
+    int parallelism = 0; // Threads of the evaluation of the portfolios (0 for all the cores)
+    int grain = 64; // Portfolios evaluated by each parallel task
+
+    /**
+     * This method builds the matrices of the attacks of a model
+     * @param m: model with the individuals of CAPEC (base model, without inference)
+     */
+    public OntoCapecCoverage(Model m){
+        this.myns = new OntoCapecModel().getMynsUri();
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        Graph g = m.getGraph();
+        Node attack = uri("Attack");
+
+        // Ids of the attacks first, so the rows have their final length
+        ExtendedIterator<Triple> it = g.find(Node.ANY, RDF.Nodes.type, attack);
+        try {
+            while(it.hasNext()){intern(it.next().getSubject(), attackIds, attacks);}
+        } finally {
+            it.close();
+        }
+        List<Triple> reduced = g.find(Node.ANY, uri("reduces"), Node.ANY).toList();
+        List<Triple> exploited = g.find(Node.ANY, uri("exploits"), Node.ANY).toList();
+        for(Triple t : reduced){intern(t.getObject(), attackIds, attacks);}
+        for(Triple t : exploited){intern(t.getSubject(), attackIds, attacks);}
+        words = (attacks.size() + 63) >>> 6;
+        all = new long[words];
+        for(int a=0; a<attacks.size(); a++){set(all, a);}
+
+        reduces = fill(reduced, true, mitigationIds, mitigations);
+        exploitedBy = fill(exploited, false, weaknessIds, weaknesses);
+        metrics.stop("coverage.build", sample);
+    }
+
+    /**
+     * This method returns the matrices of a model, built again if the model
+     * has changed since the last call
+     * @param m: model with the individuals of CAPEC (base model, without inference)
+     * @return: the matrices (shared, do not change them)
+     */
+    public static OntoCapecCoverage of(Model m){
+        long version = OntoCapecVersion.of(m.getGraph()).getVersion();
+        return coverages.get(m.getGraph(), () -> {
+            OntoCapecCoverage c = new OntoCapecCoverage(m);
+            c.version = version;
+            return c;
+        }, c -> c.version == version);
+    }
+
+    private Node uri(String localName){
+        return NodeFactory.createURI(myns + localName);
+    }
+
+    static int intern(Node n, HashMap<Node, Integer> ids, ArrayList<Node> nodes){
+        Integer id = ids.get(n);
+        if(id == null){
+            id = nodes.size();
+            ids.put(n, id);
+            nodes.add(n);
+        }
+        return id;
+    }
+
+    // One row of bits for each subject (or object) of the triples, over the attacks
+    private long[][] fill(List<Triple> triples, boolean bySubject, HashMap<Node, Integer> ids, ArrayList<Node> nodes){
+        Node empty = uri("null"); // Individual of the empty cells: not a real mitigation or weakness
+        ArrayList<long[]> rows = new ArrayList<>();
+        for(Triple t : triples){
+            if((bySubject ? t.getSubject() : t.getObject()).equals(empty)){continue;}
+            int row = intern(bySubject ? t.getSubject() : t.getObject(), ids, nodes);
+            if(row == rows.size()){rows.add(new long[words]);}
+            set(rows.get(row), attackIds.get(bySubject ? t.getObject() : t.getSubject()));
+        }
+        return rows.toArray(new long[rows.size()][]);
+    }
+
+    static void set(long[] bits, int i) {bits[i >>> 6] |= 1L << i;}
+    static boolean get(long[] bits, int i) {return (bits[i >>> 6] & (1L << i)) != 0;}
+
+    static int count(long[] bits){
+        int count = 0;
+        for(long w : bits){count += Long.bitCount(w);}
+        return count;
+    }
+
+    // Number of bits set in both rows
+    static int countAnd(long[] a, long[] b){
+        int count = 0;
+        for(int i=0; i<a.length; i++){count += Long.bitCount(a[i] & b[i]);}
+        return count;
+    }
+
+    static int[] toIds(long[] bits){
+        int[] ids = new int[count(bits)];
+        int k = 0;
+        for(int w=0; w<bits.length; w++){
+            for(long x = bits[w]; x != 0; x &= x - 1){ids[k++] = (w << 6) + Long.numberOfTrailingZeros(x);}
+        }
+        return ids;
+    }
+
+    // Getters of the matrices
+    public int getAttacks() {return attacks.size();}
+    public int getMitigations() {return mitigations.size();}
+    public int getWeaknesses() {return weaknesses.size();}
+    public Node getAttack(int id) {return attacks.get(id);}
+    public Node getMitigation(int id) {return mitigations.get(id);}
+    public Node getWeakness(int id) {return weaknesses.get(id);}
+    public int getReduced(int mitigation) {return count(reduces[mitigation]);}
+
+    /**
+     * @param mitigation: individual of a mitigation
+     * @return: its id, or -1 if it reduces no attack
+     */
+    public int getMitigationId(Node mitigation){
+        Integer id = mitigationIds.get(mitigation);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param name: local name of a mitigation in the model
+     * @return: its id, or -1 if it reduces no attack
+     */
+    public int getMitigationId(String name){
+        return getMitigationId(uri(name));
+    }
+
+    /**
+     * This method returns the attacks covered by a portfolio
+     * @param portfolio: ids of the mitigations deployed
+     * @return: the row of bits of the attacks reduced by some mitigation
+     */
+    public long[] covered(int[] portfolio){
+        long[] covered = new long[words];
+        for(int mitigation : portfolio){
+            long[] row = reduces[mitigation];
+            for(int i=0; i<words; i++){covered[i] |= row[i];}
+        }
+        return covered;
+    }
+
+    /**
+     * This method returns the attacks left uncovered by a portfolio
+     * @param portfolio: ids of the mitigations deployed (empty for none)
+     * @return: the ids of the attacks not reduced by any mitigation
+     */
+    public int[] uncovered(int[] portfolio){
+        long[] left = covered(portfolio);
+        for(int i=0; i<words; i++){left[i] = all[i] & ~left[i];}
+        return toIds(left);
+    }
+
+    /**
+     * This method returns the weaknesses still exposed with a portfolio
+     * @param portfolio: ids of the mitigations deployed
+     * @return: the ids of the weaknesses exploited by some attack not covered
+     */
+    public int[] exposed(int[] portfolio){
+        long[] covered = covered(portfolio);
+        List<Integer> result = new ArrayList<>();
+        for(int w=0; w<exploitedBy.length; w++){
+            if(isExposed(exploitedBy[w], covered)){result.add(w);}
+        }
+        int[] ids = new int[result.size()];
+        for(int i=0; i<ids.length; i++){ids[i] = result.get(i);}
+        return ids;
+    }
+
+    // True if some attack of the row is not covered
+    static boolean isExposed(long[] row, long[] covered){
+        for(int i=0; i<row.length; i++){
+            if((row[i] & ~covered[i]) != 0){return true;}
+        }
+        return false;
+    }
+
+    /**
+     * This method evaluates a portfolio
+     * @param portfolio: ids of the mitigations deployed
+     * @return: attacks covered and not, weaknesses exposed
+     */
+    public Evaluation evaluate(int[] portfolio){
+        long[] covered = covered(portfolio);
+        int count = count(covered);
+        int exposed = 0;
+        for(long[] row : exploitedBy){
+            if(isExposed(row, covered)){exposed++;}
+        }
+        return new Evaluation(count, attacks.size() - count, exposed);
+    }
+
+    /**
+     * This method evaluates many portfolios in parallel
+     * @param portfolios: ids of the mitigations of each portfolio
+     * @return: the evaluation of each portfolio (same order)
+     */
+    public Evaluation[] evaluateAll(final List<int[]> portfolios){
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        final Evaluation[] results = new Evaluation[portfolios.size()];
+        OntoCapecPool.invoke(new EvaluationTask(portfolios, results, 0, results.length), parallelism);
+        metrics.stop("coverage.evaluate", sample);
+        metrics.increment("coverage.portfolios", results.length);
+        return results;
+    }
+
+    /**
+     * Evaluation of the portfolios of a range, split in parallel tasks
+     */
+    class EvaluationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final List<int[]> portfolios;
+        final Evaluation[] results;
+        final int from, to;
+
+        EvaluationTask(List<int[]> portfolios, Evaluation[] results, int from, int to){
+            this.portfolios = portfolios;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > grain){
+                int mid = (from + to) >>> 1;
+                invokeAll(new EvaluationTask(portfolios, results, from, mid), new EvaluationTask(portfolios, results, mid, to));
+                return;
+            }
+            for(int i = from; i < to; i++){results[i] = evaluate(portfolios.get(i));}
+        }
+    }
+
+    /**
+     * This method returns the mitigation that covers the most attacks left
+     * uncovered by a portfolio
+     * @param portfolio: ids of the mitigations deployed
+     * @return: the id of the mitigation, or -1 if none covers a new attack
+     */
+    public int bestAddition(int[] portfolio){
+        int[] picks = greedyCover(portfolio, 1);
+        return picks.length == 0 ? -1 : picks[0];
+    }
+
+    /**
+     * This method chooses the mitigations to add to a portfolio with the greedy
+     * algorithm of set cover: each step takes the mitigation that covers the
+     * most attacks still uncovered. The gains can only decrease, so a gain
+     * computed in an earlier step is an upper bound and is computed again only
+     * when it reaches the top of the heap (lazy greedy).
+     * @param portfolio: ids of the mitigations already deployed
+     * @param budget: maximum number of mitigations to add (-1 for no limit)
+     * @return: the ids of the mitigations added, in order of choice
+     */
+    public int[] greedyCover(int[] portfolio, int budget){
+        long[] left = covered(portfolio);
+        for(int i=0; i<words; i++){left[i] = all[i] & ~left[i];}
+        final int[] gains = new int[reduces.length];
+        final int[] steps = new int[reduces.length]; // Step in which each gain was computed
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, reduces.length),
+                (a, b) -> gains[a] != gains[b] ? gains[b] - gains[a] : a - b);
+        for(int mitigation=0; mitigation<reduces.length; mitigation++){
+            gains[mitigation] = countAnd(reduces[mitigation], left);
+            if(gains[mitigation] > 0){heap.offer(mitigation);}
+        }
+
+        List<Integer> picks = new ArrayList<>();
+        int step = 0;
+        while(!heap.isEmpty() && picks.size() != budget){
+            int best = heap.poll();
+            if(steps[best] != step){
+                // Gain of an earlier step: update it and put it back
+                gains[best] = countAnd(reduces[best], left);
+                steps[best] = step;
+                if(gains[best] > 0){heap.offer(best);}
+                continue;
+            }
+            picks.add(best);
+            long[] row = reduces[best];
+            for(int i=0; i<words; i++){left[i] &= ~row[i];}
+            step++;
+        }
+        int[] result = new int[picks.size()];
+        for(int i=0; i<result.length; i++){result[i] = picks.get(i);}
+        return result;
+    }
+
+    /**
+     * This method returns the attacks that no mitigation of the model reduces
+     * @return: the ids of the attacks
+     */
+    public int[] uncoverable(){
+        int[] everything = new int[reduces.length];
+        for(int i=0; i<everything.length; i++){everything[i] = i;}
+        return uncovered(everything);
+    }
+
+    /**
+     * This method returns the attacks reduced by a mitigation
+     * @param mitigation: id of the mitigation
+     * @return: the ids of the attacks
+     */
+    public int[] reducedBy(int mitigation){
+        return toIds(reduces[mitigation]);
+    }
+
+    /**
+     * This method tells if a portfolio covers an attack
+     * @param portfolio: ids of the mitigations deployed
+     * @param attack: id of the attack
+     * @return: true if some mitigation of the portfolio reduces it
+     */
+    public boolean isCovered(int[] portfolio, int attack){
+        for(int mitigation : portfolio){
+            if(get(reduces[mitigation], attack)){return true;}
+        }
+        return false;
+    }
+}
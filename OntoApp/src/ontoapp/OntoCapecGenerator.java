@@ -0,0 +1,246 @@
+/**
+ * This class generates synthetic datasets in the format of capec.csv (same 20
+ * columns, same encoding of the multi-valued cells) of any size, to measure the
+ * application beyond the 517 rows of CAPEC. The generation is deterministic:
+ * each row depends only on the seed and on its index, so the same parameters
+ * always give the same dataset. The rows can be written in a file or read on
+ * the fly (without file and without keeping them in memory) by OntoCapecModel.
+ */
+package ontoapp;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.SplittableRandom;
+
+import org.apache.jena.ontology.OntModel;
+
+
+public class OntoCapecGenerator {
+
+    // Header of capec.csv
+    static final String header = "'ID,Name,Abstraction,Status,Description,Alternate Terms,Likelihood Of Attack,"
+            + "Typical Severity,Related Attack Patterns,Execution Flow,Prerequisites,Skills Required,"
+            + "Resources Required,Indicators,Consequences,Mitigations,Example Instances,Related Weaknesses,"
+            + "Taxonomy Mappings,Notes";
+
+    // Values of the single-valued columns (null is a value: the cell is empty)
+    static final String[] abstractions = {"Meta", "Standard", "Detailed"};
+    static final String[] statuses = {"Draft", "Stable", "Usable"};
+    static final String[] likelihoods = {"Low", "Medium", "High", "null"};
+    static final String[] severities = {"Very Low", "Low", "Medium", "High", "Very High", "null"};
+    static final String[] natures = {"ChildOf", "CanPrecede", "CanFollow", "PeerOf", "CanAlsoBe"};
+    static final String[] phases = {"Explore", "Experiment", "Exploit"};
+    static final String[] levels = {"Low", "Medium", "High"};
+    static final String[] scopes = {"Confidentiality", "Integrity", "Availability", "Access Control", "Authorization"};
+    static final String[] impacts = {"Read Data", "Modify Data", "Unreliable Execution", "Gain Privileges", "Bypass Protection Mechanism"};
+
+    // Attributes for customization
+    long seed = 42;
+    long rows = 10000; // Rows of the dataset (up to tens of millions: rows are never kept in memory)
+    int fanOut = 3; // Maximum number of values of a multi-valued cell
+    double nullRate = 0.3; // Probability that an optional cell is empty
+    double relatedDensity = 1.0; // Average number of related patterns of a row
+    int valuePool = 0; // Distinct values of each multi-valued column (0 for a quarter of the rows)
+    int weaknessPool = 1300; // Distinct weaknesses (CWE numbers as in capec.csv, mapped to CWE-<n>: never a pattern id)
+    // Distributions as in CAPEC (same order of the values above)
+    double[] abstractionWeights = {58, 164, 295};
+    double[] statusWeights = {391, 124, 2};
+    double[] likelihoodWeights = {85, 92, 115, 225};
+    double[] severityWeights = {3, 103, 109, 175, 52, 75};
+    double[] natureWeights = {490, 30, 25, 10, 3};
+
+    public OntoCapecGenerator(long seed, long rows){
+        this.seed = seed;
+        this.rows = rows;
+    }
+
+    // Setters of the customization
+    public void setFanOut(int fanOut) {this.fanOut = fanOut;}
+    public void setNullRate(double nullRate) {this.nullRate = nullRate;}
+    public void setRelatedDensity(double relatedDensity) {this.relatedDensity = relatedDensity;}
+    public void setValuePool(int valuePool) {this.valuePool = valuePool;}
+    public void setSeverityWeights(double... weights) {this.severityWeights = weights;}
+    public void setLikelihoodWeights(double... weights) {this.likelihoodWeights = weights;}
+
+    // Getter of the number of rows
+    public long getRows() {return rows;}
+
+    int pool(){
+        return valuePool > 0 ? valuePool : (int) Math.max(16, Math.min(Integer.MAX_VALUE, rows / 4));
+    }
+
+    /**
+     * This method generates a row (the same for the same seed and index)
+     * @param index: index of the row, from 0
+     * @return: the 20 cells of the row
+     */
+    public String[] row(long index){
+        SplittableRandom r = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        long id = index + 1;
+        int pool = pool();
+        String[] row = new String[20];
+        row[0] = String.valueOf(id);
+        row[1] = "Synthetic Attack Pattern " + id;
+        row[2] = pick(r, abstractions, abstractionWeights);
+        row[3] = pick(r, statuses, statusWeights);
+        row[4] = "Synthetic attack pattern " + id + " of the family " + r.nextInt(pool) + ".";
+        row[5] = "null";
+        row[6] = pick(r, likelihoods, likelihoodWeights);
+        row[7] = pick(r, severities, severityWeights);
+
+        // Related patterns: ids of other rows of the dataset
+        StringBuilder related = new StringBuilder("::");
+        int count = rows > 1 ? poisson(r, relatedDensity) : 0;
+        for(int i=0; i<count; i++){
+            long other = 1 + r.nextLong(rows - 1);
+            if(other >= id){other++;}
+            related.append("NATURE:").append(pick(r, natures, natureWeights)).append(":CAPEC ID:").append(other).append("::");
+        }
+        row[8] = count == 0 ? "null" : related.toString();
+
+        row[9] = optional(r) ? "null" : "::STEP:1:PHASE:" + phases[r.nextInt(phases.length)]
+                + ":DESCRIPTION:Synthetic step of the flow " + r.nextInt(pool) + "::";
+        row[10] = multi(r, "Synthetic prerequisite ", pool);
+        row[11] = optional(r) ? "null" : "::SKILL:Synthetic skill " + r.nextInt(pool)
+                + ":LEVEL:" + levels[r.nextInt(levels.length)] + "::";
+        row[12] = optional(r) ? "null" : "::Synthetic resource " + r.nextInt(pool) + "::";
+        row[13] = optional(r) ? "null" : "::Synthetic indicator " + r.nextInt(pool) + "::";
+        row[14] = optional(r) ? "null" : "::SCOPE:" + scopes[r.nextInt(scopes.length)]
+                + ":TECHNICAL IMPACT:" + impacts[r.nextInt(impacts.length)] + "::";
+        row[15] = multi(r, "Synthetic mitigation ", pool);
+        row[16] = "null";
+        row[17] = multi(r, "", weaknessPool); // Same numbers as the pattern ids, told apart by the prefix of CapecRowMapper
+        row[18] = "null";
+        row[19] = "null";
+        return row;
+    }
+
+    // True if an optional cell must be empty
+    boolean optional(SplittableRandom r){
+        return r.nextDouble() < nullRate;
+    }
+
+    // Multi-valued cell with 1 to fanOut values of a pool (or empty)
+    String multi(SplittableRandom r, String prefix, int pool){
+        if(optional(r)){return "null";}
+        int count = 1 + r.nextInt(Math.max(1, fanOut));
+        StringBuilder sb = new StringBuilder("::");
+        for(int i=0; i<count; i++){sb.append(prefix).append(r.nextInt(pool) + 1).append("::");}
+        return sb.toString();
+    }
+
+    // Value chosen with the given weights
+    static String pick(SplittableRandom r, String[] values, double[] weights){
+        double total = 0;
+        for(double w : weights){total += w;}
+        double x = r.nextDouble() * total;
+        for(int i=0; i<values.length - 1; i++){
+            x -= weights[i];
+            if(x < 0){return values[i];}
+        }
+        return values[values.length - 1];
+    }
+
+    // Number of events with the given mean (Knuth, fine for small means)
+    static int poisson(SplittableRandom r, double mean){
+        double limit = Math.exp(-mean);
+        double p = r.nextDouble();
+        int k = 0;
+        while(p > limit){
+            k++;
+            p *= r.nextDouble();
+        }
+        return k;
+    }
+
+    /**
+     * This method writes the header and all the rows
+     * @param out: destination (not closed)
+     * @throws IOException if the rows cannot be written
+     */
+    public void write(Writer out) throws IOException {
+        out.write(header);
+        out.write('\n');
+        for(long i=0; i<rows; i++){
+            out.write(String.join(",", row(i)));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * This method writes the dataset in a file
+     * @param path: file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String path) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(path), 1 << 16);
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * This method returns the dataset as a stream of characters, generated
+     * while it is read
+     * @return: a reader of the header and of all the rows
+     */
+    public Reader openReader(){
+        return new Reader() {
+            long next = -1; // -1 for the header
+            String line = "";
+            int pos = 0;
+
+            @Override
+            public int read(char[] cbuf, int off, int len){
+                int read = 0;
+                while(read < len){
+                    if(pos == line.length()){
+                        if(next >= rows){break;}
+                        line = (next < 0 ? header : String.join(",", row(next))) + "\n";
+                        pos = 0;
+                        next++;
+                    }
+                    int n = Math.min(len - read, line.length() - pos);
+                    line.getChars(pos, pos + n, cbuf, off + read);
+                    pos += n;
+                    read += n;
+                }
+                return read == 0 && len > 0 ? -1 : read;
+            }
+
+            @Override
+            public void close(){
+                next = rows;
+                line = "";
+                pos = 0;
+            }
+        };
+    }
+
+    /**
+     * This method builds a model with the generated rows, without writing them
+     * @param onto: model to use (its numRows limits the rows inserted: -1 for all)
+     * @return: the model created
+     */
+    public OntModel buildModel(OntoCapecModel onto){
+        return onto.buildModel(openReader());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.err.println("Usage: OntoCapecGenerator rows output-file [seed]");
+            System.exit(2);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        OntoCapecGenerator generator = new OntoCapecGenerator(seed, Long.parseLong(args[0]));
+        long start = System.nanoTime();
+        generator.write(args[1]);
+        System.out.println(generator.getRows() + " rows written in " + args[1] + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
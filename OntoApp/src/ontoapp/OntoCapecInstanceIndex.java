@@ -0,0 +1,264 @@
+/**
+ * This class indexes the types of the individuals: each individual gets a dense
+ * integer id and each class a bitset of the ids of its members. The types are
+ * the asserted ones plus the ones given by the domain and the range of the
+ * properties; the super-classes are added through OntoCapecClassIndex, so the
+ * members of a class are the same entailed by the RDFS profile. Retrieval,
+ * instance checking and intersections of classes become operations on bits.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.listeners.StatementListener;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+
+public class OntoCapecInstanceIndex extends StatementListener {
+
+    // Index of each model already observed (one listener for each model)
+    static final OntoCapecRegistry<OntoCapecInstanceIndex> indexes = new OntoCapecRegistry<>(true);
+
+    // Dense id of each individual
+    final HashMap<Node, Integer> ids = new HashMap<>();
+    final ArrayList<Node> individuals = new ArrayList<>();
+
+    // Members of each class without the hierarchy (asserted, domain and range)
+    final HashMap<Node, BitSet> members = new HashMap<>();
+
+    // Domains and ranges of the properties
+    final HashMap<Node, List<Node>> domains = new HashMap<>();
+    final HashMap<Node, List<Node>> ranges = new HashMap<>();
+    final HashSet<Node> predicates = new HashSet<>(); // Properties of the triples indexed
+
+    // Members of each class with its sub-classes, computed at the first request
+    final HashMap<Node, BitSet> closed = new HashMap<>();
+    long closedVersion = -1; // Version of the class index when closed was filled
+
+    // True when a triple has been removed or a domain/range added after the data
+    boolean stale = false;
+
+    final OntoCapecClassIndex classIndex;
+
+    OntoCapecInstanceIndex(OntoCapecClassIndex classIndex){
+        this.classIndex = classIndex;
+    }
+
+    /**
+     * This method returns the index of a model: it is built the first time,
+     * then kept up to date with the triples added. It can be created before
+     * the individuals are inserted, so it is filled during the ingestion.
+     * @param m: model to index (base model, without inference)
+     * @return: the index
+     */
+    public static OntoCapecInstanceIndex of(Model m){
+        OntoCapecClassIndex classIndex = OntoCapecClassIndex.of(m);
+        // Built again if the class index has been released meanwhile
+        OntoCapecInstanceIndex index = indexes.get(m.getGraph(), () -> {
+            OntoCapecInstanceIndex created = new OntoCapecInstanceIndex(classIndex);
+            synchronized(created){
+                created.load(m);
+                m.register(created);
+            }
+            return created;
+        }, i -> i.classIndex == classIndex);
+        index.refresh(m);
+        return index;
+    }
+
+    private void load(Model m){
+        // Domains and ranges first, so they are known when the data is read
+        load(m.listStatements(null, RDFS.domain, (RDFNode) null));
+        load(m.listStatements(null, RDFS.range, (RDFNode) null));
+        load(m.listStatements());
+    }
+
+    private void load(StmtIterator it){
+        try {
+            while(it.hasNext()){addedStatement(it.next());}
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * This method builds the index again if triples have been removed since it
+     * was built (a type can be entailed by many triples)
+     * @param m: model of the index
+     */
+    synchronized void refresh(Model m){
+        if(!stale){return;}
+        ids.clear();
+        individuals.clear();
+        members.clear();
+        domains.clear();
+        ranges.clear();
+        predicates.clear();
+        closed.clear();
+        stale = false;
+        load(m);
+    }
+
+    // Getters of the index
+    public synchronized boolean isStale() {return stale;}
+    public synchronized int size() {return individuals.size();}
+    public synchronized Node getIndividual(int id) {return individuals.get(id);}
+
+    /**
+     * This method returns the id of an individual
+     * @param a: the individual
+     * @return: the id or -1 if a has no type
+     */
+    public synchronized int getId(Node a){
+        Integer id = ids.get(a);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * This method returns the members of a class, with the members of its
+     * sub-classes (the result is shared: do not change it)
+     * @param c: the class
+     * @return: the ids of the members
+     */
+    BitSet closedMembers(Node c){
+        if(classIndex.getVersion() != closedVersion){
+            closed.clear();
+            closedVersion = classIndex.getVersion();
+        }
+        BitSet result = closed.get(c);
+        if(result == null){
+            BitSet direct = members.get(c);
+            result = direct == null ? new BitSet() : (BitSet) direct.clone();
+            BitSet subClasses = classIndex.getSubClasses(c);
+            for(int sub = subClasses.nextSetBit(0); sub >= 0; sub = subClasses.nextSetBit(sub + 1)){
+                direct = members.get(classIndex.getClass(sub));
+                if(direct != null){result.or(direct);}
+            }
+            closed.put(c, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param c: a class
+     * @return: a copy of the ids of its members
+     */
+    public synchronized BitSet getInstances(Node c){
+        return (BitSet) closedMembers(c).clone();
+    }
+
+    /**
+     * This method checks if the individual a is instance of the class C
+     * @param a: the individual
+     * @param c: the class
+     * @return: true if a is (also by inference) of type C
+     */
+    public synchronized boolean isInstanceOf(Node a, Node c){
+        Integer id = ids.get(a);
+        return id != null && closedMembers(c).get(id);
+    }
+
+    /**
+     * This method returns the members of a class (instance retrieval)
+     * @param c: the class
+     * @return: the individuals, in order of insertion
+     */
+    public synchronized List<Node> listInstances(Node c){
+        return toNodes(closedMembers(c));
+    }
+
+    /**
+     * This method returns the individuals that are members of all the classes
+     * @param classes: the classes to intersect
+     * @return: the individuals, in order of insertion
+     */
+    public synchronized List<Node> listInstancesOfAll(Node... classes){
+        if(classes.length == 0){return new ArrayList<>();}
+        BitSet result = (BitSet) closedMembers(classes[0]).clone();
+        for(int i=1; i<classes.length && !result.isEmpty(); i++){result.and(closedMembers(classes[i]));}
+        return toNodes(result);
+    }
+
+    List<Node> toNodes(BitSet set){
+        List<Node> result = new ArrayList<>(set.cardinality());
+        for(int id = set.nextSetBit(0); id >= 0; id = set.nextSetBit(id + 1)){result.add(individuals.get(id));}
+        return result;
+    }
+
+    // Adds x to the members of c
+    void addMember(Node c, Node x){
+        Integer id = ids.get(x);
+        if(id == null){
+            id = individuals.size();
+            ids.put(x, id);
+            individuals.add(x);
+        }
+        BitSet direct = members.get(c);
+        if(direct == null){
+            direct = new BitSet();
+            members.put(c, direct);
+        }
+        if(direct.get(id)){return;}
+        direct.set(id);
+        if(!closed.isEmpty()){closed.clear();}
+    }
+
+    // Adds p to the properties with a domain (or a range); true if it is new
+    boolean addAxiom(HashMap<Node, List<Node>> axioms, Node p, Node c){
+        List<Node> classes = axioms.get(p);
+        if(classes == null){
+            classes = new ArrayList<>(1);
+            axioms.put(p, classes);
+        }
+        if(classes.contains(c)){return false;}
+        classes.add(c);
+        return true;
+    }
+
+    // Types asserted and entailed by domain and range (sub-properties are not followed)
+    @Override
+    public synchronized void addedStatement(Statement s){
+        Node subject = s.getSubject().asNode();
+        Node predicate = s.getPredicate().asNode();
+        Node object = s.getObject().asNode();
+        if(predicate.equals(RDF.type.asNode())){
+            if(!object.isLiteral()){addMember(object, subject);}
+        } else if(predicate.equals(RDFS.domain.asNode()) || predicate.equals(RDFS.range.asNode())){
+            HashMap<Node, List<Node>> axioms = predicate.equals(RDFS.domain.asNode()) ? domains : ranges;
+            // The triples already indexed do not have the new type: build the index again
+            if(addAxiom(axioms, subject, object) && predicates.contains(subject)){stale = true;}
+        } else{
+            predicates.add(predicate);
+            List<Node> classes = domains.get(predicate);
+            if(classes != null){
+                for(Node c : classes){addMember(c, subject);}
+            }
+            classes = ranges.get(predicate);
+            if(classes != null && !object.isLiteral()){
+                for(Node c : classes){addMember(c, object);}
+            }
+        }
+    }
+
+    // A type can be entailed by other triples: the index is marked to be built again
+    @Override
+    public synchronized void removedStatement(Statement s){
+        stale = true;
+    }
+
+    @Override
+    public synchronized void notifyEvent(Model m, Object event){
+        if(event == GraphEvents.removeAll){stale = true;}
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * This class collects the metrics of the phases of the application: counters
+ * (rows parsed, triples added, IRIs created, bytes written, rule firings,
+ * validation reports), gauges (rows per second) and timed phases with the heap
+ * used at their end (model build, ingestion, write, inference, validation,
+ * parse, execution and drain of the queries). The metrics are kept by a
+ * registry, exposed via JMX, and every measure is also sent to the listeners
+ * added, so they can be exported elsewhere. The registry used by the
+ * application is the one returned by get(): it can be replaced with set().
+ */
+package ontoapp;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+public class OntoCapecMetrics implements OntoCapecMetricsMXBean {
+
+    // Name of the registry in the platform MBean server
+    static final String objectName = "ontoapp:type=OntoCapecMetrics";
+
+    // Registry used by the application (created at the first request)
+    static OntoCapecMetrics current = null;
+
+    /**
+     * Receiver of each measure (for example to send it to a monitoring system)
+     */
+    public interface Listener {
+        /**
+         * @param phase: name of the phase
+         * @param detail: what was measured (the text of the query for the query phases, otherwise null)
+         * @param nanos: duration of the phase
+         * @param heapBytes: heap used at the end of the phase
+         */
+        void timed(String phase, String detail, long nanos, long heapBytes);
+    }
+
+    /**
+     * Start of a phase, given back to stop()
+     */
+    public static class Sample {
+        final long start = System.nanoTime();
+        final long heap = usedHeap();
+    }
+
+    /**
+     * Statistics of a timed phase
+     */
+    static class Phase {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        volatile long heapUsed = 0;
+        volatile long heapDelta = 0;
+    }
+
+    final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    final Map<String, Double> gauges = new ConcurrentHashMap<>();
+    final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * This method returns the registry used by the application, registered in
+     * the platform MBean server the first time
+     * @return: the registry
+     */
+    public static synchronized OntoCapecMetrics get(){
+        if(current == null){set(new OntoCapecMetrics());}
+        return current;
+    }
+
+    /**
+     * This method replaces the registry used by the application (for example
+     * with a subclass that forwards the metrics) and registers it via JMX
+     * @param metrics: the new registry
+     */
+    public static synchronized void set(OntoCapecMetrics metrics){
+        current = metrics;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if(server.isRegistered(name)){server.unregisterMBean(name);}
+            server.registerMBean(metrics, name);
+        } catch (JMException | SecurityException ex) {
+            Logger.getLogger(OntoCapecMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    // Heap used now (without forcing a collection)
+    static long usedHeap(){
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Listeners of the measures
+    public void addListener(Listener listener) {listeners.add(listener);}
+    public void removeListener(Listener listener) {listeners.remove(listener);}
+
+    /**
+     * This method adds a value to a counter
+     * @param name: name of the counter
+     * @param delta: value to add
+     */
+    public void increment(String name, long delta){
+        AtomicLong counter = counters.get(name);
+        if(counter == null){counter = counters.computeIfAbsent(name, k -> new AtomicLong());}
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * This method sets the value of a gauge
+     * @param name: name of the gauge
+     * @param value: current value
+     */
+    public void gauge(String name, double value){
+        gauges.put(name, value);
+    }
+
+    /**
+     * This method starts the measure of a phase
+     * @return: the start, to give to stop()
+     */
+    public Sample start(){
+        return new Sample();
+    }
+
+    /**
+     * This method ends the measure of a phase
+     * @param phase: name of the phase
+     * @param sample: start of the phase
+     * @return: the duration of the phase in nanoseconds
+     */
+    public long stop(String phase, Sample sample){
+        return stop(phase, null, sample);
+    }
+
+    /**
+     * This method ends the measure of a phase about something in particular
+     * @param phase: name of the phase
+     * @param detail: what was measured (given only to the listeners)
+     * @param sample: start of the phase
+     * @return: the duration of the phase in nanoseconds
+     */
+    public long stop(String phase, String detail, Sample sample){
+        long nanos = System.nanoTime() - sample.start;
+        long heap = usedHeap();
+        record(phase, detail, nanos, heap, heap - sample.heap);
+        return nanos;
+    }
+
+    /**
+     * This method records a phase measured by the caller
+     * @param phase: name of the phase
+     * @param detail: what was measured (null if nothing in particular)
+     * @param nanos: duration of the phase
+     * @param heapUsed: heap used at the end of the phase
+     * @param heapDelta: growth of the heap during the phase
+     */
+    public void record(String phase, String detail, long nanos, long heapUsed, long heapDelta){
+        Phase p = phases.get(phase);
+        if(p == null){p = phases.computeIfAbsent(phase, k -> new Phase());}
+        p.count.incrementAndGet();
+        p.nanos.addAndGet(nanos);
+        p.maxNanos.accumulateAndGet(nanos, Math::max);
+        p.heapUsed = heapUsed;
+        p.heapDelta = heapDelta;
+        for(Listener l : listeners){l.timed(phase, detail, nanos, heapUsed);}
+    }
+
+    // Getters of single values
+    public long getCounter(String name) {AtomicLong c = counters.get(name); return c == null ? 0 : c.get();}
+    public double getGauge(String name) {Double g = gauges.get(name); return g == null ? 0 : g;}
+
+    @Override
+    public Map<String, Long> getCounters(){
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> e : counters.entrySet()){result.put(e.getKey(), e.getValue().get());}
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getGauges(){
+        return new TreeMap<>(gauges);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts(){
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, Phase> e : phases.entrySet()){result.put(e.getKey(), e.getValue().count.get());}
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTotalMillis(){
+        Map<String, Double> result = new TreeMap<>();
+        for(Map.Entry<String, Phase> e : phases.entrySet()){result.put(e.getKey(), e.getValue().nanos.get() / 1e6);}
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMaxMillis(){
+        Map<String, Double> result = new TreeMap<>();
+        for(Map.Entry<String, Phase> e : phases.entrySet()){result.put(e.getKey(), e.getValue().maxNanos.get() / 1e6);}
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseHeapUsedBytes(){
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, Phase> e : phases.entrySet()){result.put(e.getKey(), e.getValue().heapUsed);}
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseHeapDeltaBytes(){
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, Phase> e : phases.entrySet()){result.put(e.getKey(), e.getValue().heapDelta);}
+        return result;
+    }
+
+    @Override
+    public void reset(){
+        counters.clear();
+        gauges.clear();
+        phases.clear();
+    }
+
+    /**
+     * This method returns a readable summary of all the metrics
+     * @return: one line for each counter, gauge and phase
+     */
+    public String report(){
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, Long> e : getCounters().entrySet()){
+            sb.append(String.format("%-28s %d%n", e.getKey(), e.getValue()));
+        }
+        for(Map.Entry<String, Double> e : getGauges().entrySet()){
+            sb.append(String.format("%-28s %.1f%n", e.getKey(), e.getValue()));
+        }
+        for(String name : new TreeMap<>(phases).keySet()){
+            Phase p = phases.get(name);
+            sb.append(String.format("%-28s %d x, %.1f ms (max %.1f ms), heap %d KB (%+d KB)%n", name, p.count.get(),
+                    p.nanos.get() / 1e6, p.maxNanos.get() / 1e6, p.heapUsed / 1024, p.heapDelta / 1024));
+        }
+        return sb.toString();
+    }
+}
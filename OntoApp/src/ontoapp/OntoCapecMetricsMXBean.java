@@ -0,0 +1,30 @@
+/**
+ * This interface is the view of OntoCapecMetrics exposed via JMX (for example
+ * in jconsole, under ontoapp:type=OntoCapecMetrics). Each map is keyed by the
+ * name of the counter, gauge or phase.
+ */
+package ontoapp;
+
+import java.util.Map;
+
+
+public interface OntoCapecMetricsMXBean {
+
+    // Counters (rows, triples, IRIs, bytes, rule firings, reports, ...)
+    Map<String, Long> getCounters();
+
+    // Last value of each gauge (rows per second, ...)
+    Map<String, Double> getGauges();
+
+    // Timed phases: executions, total and maximum time
+    Map<String, Long> getPhaseCounts();
+    Map<String, Double> getPhaseTotalMillis();
+    Map<String, Double> getPhaseMaxMillis();
+
+    // Heap used at the end of the last execution of each phase, and its growth during it
+    Map<String, Long> getPhaseHeapUsedBytes();
+    Map<String, Long> getPhaseHeapDeltaBytes();
+
+    // Clears all the metrics
+    void reset();
+}
@@ -4,23 +4,34 @@
  */
 package ontoapp;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.jena.ontology.Individual;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.ontology.DatatypeProperty;
 import org.apache.jena.ontology.IntersectionClass;
 import org.apache.jena.ontology.MinCardinalityRestriction;
 import org.apache.jena.ontology.ObjectProperty;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.ontology.SomeValuesFromRestriction;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.XSD;
 
 
 public class OntoCapecModel {
@@ -33,11 +44,36 @@ public class OntoCapecModel {
     // Attribute for customization
     boolean disjointness = false; // Set true if insert disjoint assertions (create conflicts because of null values)
     int numRows = 200; // Number of rows to read from CAPEC dataset (max 517, -1 for full dataset)
-    String formatFile = "RDF/XML-ABBREV"; // Format of the output file
+    OntoCapecWriter.Format outputFormat = OntoCapecWriter.Format.RDF_XML_ABBREV; // Format of the output file
+    boolean gzipOutput = false; // Set true to compress the output file
+    boolean asyncWrite = true; // Set true to write the output file on a background thread
+    int parallelism = 1; // Threads inserting the rows (1 for a single thread, 0 for all the cores)
+    int chunkSize = 256; // Rows inserted by each task in parallel mode
+    boolean indexInstances = true; // Set true to index the types of the individuals while they are inserted
+    boolean compactGraph = false; // Set true to keep the triples in a dictionary-encoded graph (less memory, slower finds)
+    OntoCapecCompactGraph.Dictionary dictionary = null; // Dictionary of the compact graph shared with other models (null for its own)
+    boolean indexText = true; // Set true to index the text of the patterns while they are read (see OntoCapecTextIndex)
+    
+    // Write of the output file started by the last createModel
+    Future<OntoCapecWriter.WriteStats> pendingWrite = null;
     
     // Getter of myns URI
     public String getMynsUri() {return myns;}
     
+    // Getter of the write started by createModel (wait it with get())
+    public Future<OntoCapecWriter.WriteStats> getPendingWrite() {return pendingWrite;}
+    
+    /**
+     * This method returns the path of the output file, with the extension of
+     * the output format (the default is the owl file)
+     * @return: the path of the output file
+     */
+    public String getOutputPath(){
+        if(outputFormat == OntoCapecWriter.Format.RDF_XML_ABBREV && !gzipOutput){return ontologyPath;}
+        String basePath = ontologyPath.substring(0, ontologyPath.lastIndexOf('.'));
+        return new OntoCapecWriter(outputFormat, gzipOutput).getPath(basePath);
+    }
+    
     /**
      * This method replaces the invalid characters for URI used in ontology
      * @param str: String to transform in legal format
@@ -51,17 +87,46 @@ public class OntoCapecModel {
         return str;
     }
     
+    /**
+     * This method creates an empty ontology model, on the default graph or on a
+     * compact graph (see compactGraph and dictionary)
+     * @return: the empty model
+     */
+    public OntModel createEmptyModel(){
+        if(!compactGraph){return ModelFactory.createOntologyModel();}
+        OntoCapecCompactGraph graph = dictionary == null ? new OntoCapecCompactGraph() : new OntoCapecCompactGraph(dictionary);
+        Model base = ModelFactory.createModelForGraph(graph);
+        return ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_RDFS_INF, base);
+    }
+    
     /**
      * This method creates the model of the ontology based on CAPEC dataset. 
      * It has:
      *      16 Classes
      *      16 Object Property
-     * @return the model created (moreover it writes and generates an owl file)
+     * @param csvPath: path of the dataset in CAPEC format
+     * @return the model created
      */
-    public OntModel createModel(){
+    public OntModel buildModel(String csvPath){
+        Reader source = null;
+        try {source = new FileReader(csvPath);}
+        catch (FileNotFoundException e) {e.printStackTrace();}
+        return buildModel(source);
+    }
+    
+    /**
+     * This method creates the model of the ontology from any source of rows in
+     * CAPEC format (a file, or rows generated on the fly by OntoCapecGenerator)
+     * @param source: rows in CAPEC format, with header (closed at the end; null for no rows)
+     * @return the model created
+     */
+    public OntModel buildModel(Reader source){
+        
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample schemaSample = metrics.start();
         
         // Initialize the model for the ontology
-        OntModel m = ModelFactory.createOntologyModel();
+        OntModel m = createEmptyModel();
         
         /************
          * CLASSES  *
@@ -157,6 +222,13 @@ public class OntoCapecModel {
         relatedPattern.addDomain(attackPattern);
         relatedPattern.addRange(attackPattern);
         
+        /*********************
+         * DATATYPE PROPERTY *
+         ********************/
+        DatatypeProperty hasDescription = m.createDatatypeProperty(myns + "hasDescription");
+        hasDescription.addDomain(attackPattern);
+        hasDescription.addRange(XSD.xstring);
+        
         /**********************
          * COMPLEX EXPRESSION *
          *********************/
@@ -180,109 +252,138 @@ public class OntoCapecModel {
             resource.addDisjointWith(skill);
         }
         
+        metrics.stop("model.schema", schemaSample);
+        
         /***************
          * INDIVIDUALS *
          **************/
         int counter = 0; // T not load the whole file
-        BufferedReader br = null;
+        CapecCsvReader csv = null;
         try {
-            br = new BufferedReader(new FileReader(datasetPath));
-            br.readLine(); // skip the first line (header)
-            String line;
+            if(source == null){return m;}
+            OntoCapecMetrics.Sample ingestSample = metrics.start();
+            csv = new CapecCsvReader(source);
+            csv.nextRow(); // skip the first line (header)
             
-            while((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                
-                // Elements in CAPEC dataset
-                String id_ = data[0];
-                String name_ = data[1];
-                String abstraction_ = data[2];
-                String status_ = data[3];
-                String likelihood_ = data[6];
-                String severity_ = data[7];
-                String relatedPattern_ = data[8];
-                String exeFlow_ = data[9];
-                String prereq_ = data[10];
-                String skill_ = data[11];
-                String resource_ = data[12];
-                String consequence_ = data[14];
-                String mitigation_ = data[15];
-                String vulnerability_ = data[17];
-                
-                // Format string in appropriate way
-                exeFlow_ = wellFormedUri(exeFlow_);
-                prereq_ = wellFormedUri(prereq_);
-                mitigation_ = wellFormedUri(mitigation_);
-                
-                // Create instances of classes
-                Individual attackerP = attacker.createIndividual(myns+"attacker"+counter);
-                Individual attackActP = attack.createIndividual(myns+"attack"+counter); 
-                Individual attackP = id.createIndividual(myns+id_);
-                Individual nameP = name.createIndividual(myns+name_);
-                Individual abstP = abstraction.createIndividual(myns+abstraction_);
-                Individual statP = status.createIndividual(myns+status_);
-                Individual likeP = likelihood.createIndividual(myns+likelihood_);
-                Individual sevP = severity.createIndividual(myns+severity_);
-                Individual relP = attackPattern.createIndividual(myns+relatedPattern_);
-                Individual flowP = exeFlow.createIndividual(myns+exeFlow_);
-                Individual prereqP = prereq.createIndividual(myns+prereq_);
-                Individual skillP = skill.createIndividual(myns+skill_);
-                Individual resP = resource.createIndividual(myns+resource_);
-                Individual consP = consequence.createIndividual(myns+consequence_);
-                Individual mitigP = mitigation.createIndividual(myns+mitigation_);
-                Individual vulnP = vulnerability.createIndividual(myns+vulnerability_);
-                
-                // Object Property assertions (attack pattern)
-                m.add(attackP, hasName, nameP);
-                m.add(attackP, hasAbstraction, abstP);
-                m.add(attackP, hasStatus, statP);
-                m.add(attackP, hasSeverity, sevP);
-                m.add(attackP, hasLikelihood, likeP);
-                m.add(attackP, relatedPattern, relP);
-                
-                // Object Property assertions (attack)
-                m.add(attackActP, implies, consP);
-                m.add(attackActP, executes, flowP);
-                m.add(mitigP, reduces, attackActP);
-                
-                // Object Property assertions (attacker)
-                m.add(attackerP, uses, resP);
-                m.add(attackerP, needs, skillP);
-                m.add(attackerP, precondition, prereqP);
-                
-                // Object Property assertions (vulnerability and relations)
-                m.add(attackerP, hasKnowledge, vulnP);
-                m.add(attackerP, makes, attackActP);
-                m.add(attackActP, exploits, vulnP);
-                m.add(attackActP, relatedTo, attackP);
-                m.add(attackerP, relatedTo, attackP);
-
-                counter++;
-                if(counter == numRows){break;}
+            // Insert the rows directly in the base graph, then let the reasoner see them
+            Graph base = m.getBaseModel().getGraph();
+            int triples = base.size();
+            if(indexInstances){OntoCapecInstanceIndex.of(m.getBaseModel());}
+            OntoCapecTextIndex text = indexText ? new OntoCapecTextIndex() : null;
+            if(parallelism == 1){counter = insertRows(base, csv, text);}
+            else{counter = insertRowsParallel(base, csv, text);}
+            m.rebind();
+            if(text != null){
+                OntoCapecTextIndex.register(m.getBaseModel(), text);
+                metrics.gauge("index.terms", text.getTerms());
             }
+            long nanos = metrics.stop("model.ingest", ingestSample);
+            metrics.increment("ingest.rows", counter);
+            metrics.increment("ingest.triples", base.size() - triples);
+            metrics.gauge("ingest.rowsPerSec", counter / (nanos / 1e9));
             System.out.println("Read, parsed and inserted " +counter+ " data");
         }
         
-        catch (FileNotFoundException e) {e.printStackTrace();}
         catch (IOException e) {e.printStackTrace();}
         finally {
-            if (br != null){
-                try {br.close();}
+            if (csv != null){
+                try {csv.close();}
                 catch (IOException e) {e.printStackTrace();}
             }
         }
-        
-       // Write the model on owl file with rdf/xml format
-        FileWriter out = null;
+        return m;
+    }
+    
+    /**
+     * This method inserts the rows of the dataset in a single thread
+     * @param g: graph in which to insert the triples
+     * @param csv: reader of the dataset (after the header)
+     * @param text: index of the text of the rows (null to not index them)
+     * @return: the number of rows inserted
+     * @throws IOException if the dataset cannot be read
+     */
+    int insertRows(Graph g, CapecCsvReader csv, OntoCapecTextIndex text) throws IOException {
+        CapecRowMapper mapper = new CapecRowMapper(this);
+        int counter = 0;
+        while(counter != numRows && csv.nextRow()) {
+            mapper.addRow(g, csv.getColumns());
+            if(text != null){text.addRow(csv.getColumns());}
+            counter++;
+        }
+        OntoCapecMetrics.get().increment("ingest.iris", mapper.irisCreated);
+        return counter;
+    }
+    
+    /**
+     * This method inserts the rows of the dataset with many threads: the rows 
+     * are split in chunks, each chunk is mapped in a private graph on a 
+     * fork-join pool and at the end all the graphs are merged in g.
+     * @param g: graph in which to insert the triples
+     * @param csv: reader of the dataset (after the header)
+     * @param text: index of the text of the rows (null to not index them)
+     * @return: the number of rows inserted
+     * @throws IOException if the dataset cannot be read
+     */
+    int insertRowsParallel(Graph g, CapecCsvReader csv, OntoCapecTextIndex text) throws IOException {
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+        ArrayList<ForkJoinTask<Graph>> chunks = new ArrayList<>();
+        int counter = 0;
         try {
-          out = new FileWriter(ontologyPath);
-          m.write(out, formatFile);
+            // Read the rows while the chunks already read are mapped
+            String[][] rows = new String[chunkSize][];
+            int size = 0;
+            while(counter != numRows && csv.nextRow()) {
+                CharSequence[] data = csv.getColumns();
+                String[] copy = new String[data.length];
+                for(int i=0; i<data.length; i++){copy[i] = data[i].toString();}
+                rows[size++] = copy;
+                if(text != null){text.addRow(copy);} // In order of the rows, while the chunks are mapped
+                counter++;
+                if(size == chunkSize){
+                    chunks.add(pool.submit(mapChunk(rows, size)));
+                    rows = new String[chunkSize][];
+                    size = 0;
+                }
+            }
+            if(size > 0){chunks.add(pool.submit(mapChunk(rows, size)));}
+            
+            // Merge the graphs of the chunks in a single step
+            for(ForkJoinTask<Graph> chunk : chunks){
+                GraphUtil.addInto(g, chunk.join());
+            }
+        } finally {
+            if(pool != ForkJoinPool.commonPool()){pool.shutdown();}
         }
-        catch (IOException ex) {Logger.getLogger(OntoCapecModel.class.getName()).log(Level.SEVERE, null, ex);}
-        finally {
-          if (out != null){
-            try {out.close();}
-            catch (IOException ex){ex.printStackTrace();}}
+        return counter;
+    }
+    
+    // Task that maps a chunk of rows in a new graph
+    private Callable<Graph> mapChunk(final String[][] rows, final int size){
+        return () -> {
+            CapecRowMapper mapper = new CapecRowMapper(this);
+            Graph chunk = GraphFactory.createGraphMem();
+            for(int i=0; i<size; i++){mapper.addRow(chunk, rows[i]);}
+            OntoCapecMetrics.get().increment("ingest.iris", mapper.irisCreated);
+            return chunk;
+        };
+    }
+    
+    /**
+     * This method creates the model of the ontology based on CAPEC dataset and
+     * writes it in the output file (owl file by default).
+     * @return the model created (moreover it writes and generates the output file)
+     */
+    public OntModel createModel(){
+        OntModel m = buildModel(datasetPath);
+        
+        // Write the model in the output file (in background if asynchronous)
+        OntoCapecWriter writer = new OntoCapecWriter(outputFormat, gzipOutput);
+        String path = getOutputPath();
+        if(asyncWrite){
+            pendingWrite = writer.writeAsync(m.getBaseModel(), path);
+        } else {
+            try {pendingWrite = CompletableFuture.completedFuture(writer.write(m.getBaseModel().getGraph(), path));}
+            catch (IOException ex) {Logger.getLogger(OntoCapecModel.class.getName()).log(Level.SEVERE, null, ex);}
         }
         return m;
     }
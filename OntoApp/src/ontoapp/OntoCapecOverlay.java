@@ -0,0 +1,55 @@
+/**
+ * This class stacks a delta graph over a model to test hypotheses ("what if we
+ * assert X?"). Axioms and individuals asserted in the overlay live only in the
+ * delta: the base model is never changed, many overlays can be checked at the
+ * same time over the same base and dropping an overlay costs nothing.
+ */
+package ontoapp;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.Delta;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+
+public class OntoCapecOverlay {
+
+    final OntModel base;
+    final Delta delta;
+    final OntModel model;
+
+    /**
+     * @param base: model on which to make hypotheses (it is only read)
+     */
+    public OntoCapecOverlay(OntModel base){
+        this.base = base;
+        this.delta = new Delta(base.getBaseModel().getGraph());
+        // The view has no inference: reasoning is done by OntoCapecReasoner
+        this.model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, ModelFactory.createModelForGraph(delta));
+    }
+
+    // Getters of the overlay
+    public OntModel getBase() {return base;}
+
+    /**
+     * This method returns the model to use to assert (or remove) hypotheses:
+     * it shows the base model plus the changes of the overlay
+     * @return: the model of the overlay
+     */
+    public OntModel getModel() {return model;}
+
+    // Triples added and removed by the overlay
+    public Graph getAdditions() {return delta.getAdditions();}
+    public Graph getDeletions() {return delta.getDeletions();}
+    public Model getAdditionsModel() {return ModelFactory.createModelForGraph(delta.getAdditions());}
+
+    /**
+     * This method tells if the overlay does not change the base model
+     * @return: true if nothing has been added or removed
+     */
+    public boolean isEmpty(){
+        return delta.getAdditions().isEmpty() && delta.getDeletions().isEmpty();
+    }
+}
@@ -0,0 +1,440 @@
+/**
+ * This class is a graph of the attack patterns built from relatedPattern (and
+ * optionally from the weaknesses exploited by the attacks of the patterns). The
+ * patterns get dense ids and the edges are kept in compressed sparse rows: the
+ * neighbours of pattern i are targets[offsets[i]] to targets[offsets[i+1]-1].
+ * The related patterns are individuals named after the whole cell of CAPEC
+ * (NATURE:ChildOf:CAPEC ID:n), so they are resolved to the pattern with ID n.
+ * Multi-hop questions become breadth-first visits on arrays, and connected
+ * components and centrality are computed in parallel on a fork-join pool. The
+ * graph is a snapshot: OntoCapecReasoner builds it again when the model changes.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+
+public class OntoCapecPatternGraph {
+
+    // Reference to a pattern in the cells of CAPEC
+    static final Pattern capecId = Pattern.compile("CAPEC ID:(\\d+)");
+
+    // Last graph built for each model (from relatedPattern only)
+    static final OntoCapecRegistry<OntoCapecPatternGraph> graphs = new OntoCapecRegistry<>(true);
+
+    /**
+     * Centrality of the patterns (by id)
+     */
+    public static class Centrality {
+        final double[] betweenness;
+        final double[] closeness; // Harmonic: sum of 1/distance to the patterns reached
+
+        Centrality(double[] betweenness, double[] closeness){
+            this.betweenness = betweenness;
+            this.closeness = closeness;
+        }
+
+        public double getBetweenness(int id) {return betweenness[id];}
+        public double getCloseness(int id) {return closeness[id];}
+    }
+
+    final String myns;
+
+    // Dense id of each pattern
+    final HashMap<Node, Integer> ids = new HashMap<>();
+    final ArrayList<Node> patterns = new ArrayList<>();
+
+    // Compressed sparse rows of the undirected edges
+    int[] offsets;
+    int[] targets;
+
+    long version = -1; // Version of the model (see OntoCapecVersion) when the graph was built
+
+    // Attributes for customization
+    int parallelism = 0; // Threads of the parallel computations (0 for all the cores)
+    int grain = 16; // Patterns handled by each parallel task
+
+    /**
+     * This method builds the graph of the patterns of a model
+     * @param m: model with the individuals of CAPEC (base model, without inference)
+     * @param viaWeaknesses: true to link also the patterns whose attacks exploit the same weakness
+     */
+    public OntoCapecPatternGraph(Model m, boolean viaWeaknesses){
+        this.myns = new OntoCapecModel().getMynsUri();
+        Graph g = m.getGraph();
+        long[] edges = new long[1024];
+        int size = 0;
+
+        // Symmetric relatedPattern between a pattern and the pattern with the ID of the cell
+        ExtendedIterator<Triple> it = g.find(Node.ANY, uri("relatedPattern"), Node.ANY);
+        try {
+            while(it.hasNext()){
+                Triple t = it.next();
+                Node pattern = resolve(t.getSubject());
+                Node related = resolve(t.getObject());
+                if(pattern == null || related == null){continue;}
+                int s = intern(pattern);
+                int o = intern(related);
+                if(s == o){continue;}
+                if(size + 2 > edges.length){edges = Arrays.copyOf(edges, edges.length * 2);}
+                edges[size++] = edge(s, o);
+                edges[size++] = edge(o, s);
+            }
+        } finally {
+            it.close();
+        }
+
+        if(viaWeaknesses){
+            // Pattern of each attack, then the patterns of the attacks of each weakness
+            HashMap<Node, Node> patternOf = new HashMap<>();
+            for(Triple t : g.find(Node.ANY, uri("relatedTo"), Node.ANY).toList()){patternOf.put(t.getSubject(), t.getObject());}
+            HashMap<Node, List<Integer>> byWeakness = new HashMap<>();
+            for(Triple t : g.find(Node.ANY, uri("exploits"), Node.ANY).toList()){
+                Node pattern = patternOf.get(t.getSubject());
+                if(pattern == null){continue;}
+                List<Integer> list = byWeakness.get(t.getObject());
+                if(list == null){
+                    list = new ArrayList<>();
+                    byWeakness.put(t.getObject(), list);
+                }
+                list.add(intern(pattern));
+            }
+            for(List<Integer> list : byWeakness.values()){
+                for(int i=0; i<list.size(); i++){
+                    for(int j=i+1; j<list.size(); j++){
+                        int s = list.get(i), o = list.get(j);
+                        if(s == o){continue;}
+                        if(size + 2 > edges.length){edges = Arrays.copyOf(edges, edges.length * 2);}
+                        edges[size++] = edge(s, o);
+                        edges[size++] = edge(o, s);
+                    }
+                }
+            }
+        }
+        buildRows(edges, size);
+    }
+
+    /**
+     * This method returns the graph of the patterns of a model (relatedPattern
+     * only), built again if the model has changed since the last call
+     * @param m: model with the individuals of CAPEC (base model, without inference)
+     * @return: the graph (shared, do not change it)
+     */
+    public static OntoCapecPatternGraph of(Model m){
+        long version = OntoCapecVersion.of(m.getGraph()).getVersion();
+        return graphs.get(m.getGraph(), () -> {
+            OntoCapecPatternGraph g = new OntoCapecPatternGraph(m, false);
+            g.version = version;
+            return g;
+        }, g -> g.version == version);
+    }
+
+    private Node uri(String localName){
+        return NodeFactory.createURI(myns + localName);
+    }
+
+    static long edge(int s, int o) {return ((long) s << 32) | o;}
+
+    /**
+     * This method returns the pattern referenced by a node of relatedPattern
+     * @param n: a pattern or an individual named after a cell of related patterns
+     * @return: the pattern with the ID in its name, or null if it has none
+     */
+    Node resolve(Node n){
+        if(!n.isURI() || !n.getURI().startsWith(myns)){return null;}
+        String name = n.getURI().substring(myns.length());
+        if(name.matches("\\d+")){return n;}
+        Matcher matcher = capecId.matcher(name);
+        return matcher.find() ? uri(matcher.group(1)) : null;
+    }
+
+    int intern(Node pattern){
+        Integer id = ids.get(pattern);
+        if(id == null){
+            id = patterns.size();
+            ids.put(pattern, id);
+            patterns.add(pattern);
+        }
+        return id;
+    }
+
+    // Sorts the edges and fills the rows, without duplicates
+    private void buildRows(long[] edges, int size){
+        Arrays.sort(edges, 0, size);
+        int n = patterns.size();
+        offsets = new int[n + 1];
+        targets = new int[size];
+        int count = 0;
+        for(int i=0; i<size; i++){
+            if(i > 0 && edges[i] == edges[i - 1]){continue;}
+            int s = (int) (edges[i] >>> 32);
+            offsets[s + 1]++;
+            targets[count++] = (int) edges[i];
+        }
+        for(int i=0; i<n; i++){offsets[i + 1] += offsets[i];}
+        if(count < size){targets = Arrays.copyOf(targets, count);}
+    }
+
+    // Getters of the graph
+    public int size() {return patterns.size();}
+    public int getEdges() {return targets.length / 2;}
+    public Node getPattern(int id) {return patterns.get(id);}
+    public int getDegree(int id) {return offsets[id + 1] - offsets[id];}
+
+    /**
+     * @param pattern: individual of a pattern
+     * @return: its id, or -1 if it has no edges
+     */
+    public int getId(Node pattern){
+        Integer id = ids.get(pattern);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param capecId: ID of the pattern in CAPEC (as "66")
+     * @return: its id, or -1 if it has no edges
+     */
+    public int getId(String capecId){
+        return getId(uri(capecId));
+    }
+
+    /**
+     * @param id: id of a pattern
+     * @return: a copy of the ids of its neighbours
+     */
+    public int[] getNeighbors(int id){
+        return Arrays.copyOfRange(targets, offsets[id], offsets[id + 1]);
+    }
+
+    /**
+     * This method computes the distance of each pattern from a pattern
+     * @param source: id of the pattern
+     * @param maxHops: maximum distance (-1 for no limit)
+     * @param parents: if not null, filled with the pattern before each one on a shortest path
+     * @return: the distances (-1 for the patterns not reached)
+     */
+    public int[] distances(int source, int maxHops, int[] parents){
+        int n = patterns.size();
+        int[] dist = new int[n];
+        Arrays.fill(dist, -1);
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        dist[source] = 0;
+        queue[tail++] = source;
+        if(parents != null){parents[source] = -1;}
+        while(head < tail){
+            int u = queue[head++];
+            if(dist[u] == maxHops){continue;}
+            for(int e = offsets[u]; e < offsets[u + 1]; e++){
+                int v = targets[e];
+                if(dist[v] < 0){
+                    dist[v] = dist[u] + 1;
+                    if(parents != null){parents[v] = u;}
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * This method returns the patterns within k hops of a pattern
+     * @param source: id of the pattern
+     * @param hops: maximum distance
+     * @return: the ids of the patterns reached (without the source), by distance
+     */
+    public int[] withinHops(int source, int hops){
+        int[] dist = distances(source, hops, null);
+        Integer[] reached = new Integer[patterns.size()];
+        int count = 0;
+        for(int i=0; i<dist.length; i++){
+            if(dist[i] > 0){reached[count++] = i;}
+        }
+        Arrays.sort(reached, 0, count, (a, b) -> dist[a] != dist[b] ? dist[a] - dist[b] : a - b);
+        int[] result = new int[count];
+        for(int i=0; i<count; i++){result[i] = reached[i];}
+        return result;
+    }
+
+    /**
+     * This method returns a shortest path between two patterns
+     * @param from: id of the first pattern
+     * @param to: id of the last pattern
+     * @return: the ids of the patterns of the path, or an empty array if there is none
+     */
+    public int[] shortestPath(int from, int to){
+        int[] parents = new int[patterns.size()];
+        int[] dist = distances(from, -1, parents);
+        if(dist[to] < 0){return new int[0];}
+        int[] path = new int[dist[to] + 1];
+        for(int v = to, i = path.length - 1; v >= 0; v = parents[v], i--){path[i] = v;}
+        return path;
+    }
+
+    // Runs a task on the pool of the computations
+    <T> T invoke(ForkJoinTask<T> task){
+        return OntoCapecPool.invoke(task, parallelism);
+    }
+
+    /**
+     * This method labels the connected components: the edges are merged in
+     * parallel in a lock-free union-find
+     * @return: the component of each pattern (the lowest id in it)
+     */
+    public int[] components(){
+        final int n = patterns.size();
+        final AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for(int i=0; i<n; i++){parent.set(i, i);}
+        invoke(new RangeAction(u -> {
+            for(int e = offsets[u]; e < offsets[u + 1]; e++){
+                if(targets[e] > u){union(parent, u, targets[e]);}
+            }
+        }, 0, n));
+        final int[] labels = new int[n];
+        invoke(new RangeAction(u -> labels[u] = find(parent, u), 0, n));
+        return labels;
+    }
+
+    static int find(AtomicIntegerArray parent, int x){
+        while(true){
+            int p = parent.get(x);
+            if(p == x){return x;}
+            int gp = parent.get(p);
+            if(gp != p){parent.compareAndSet(x, p, gp);} // Path halving
+            x = gp;
+        }
+    }
+
+    // Links the root with the higher id under the other one
+    static void union(AtomicIntegerArray parent, int a, int b){
+        while(true){
+            a = find(parent, a);
+            b = find(parent, b);
+            if(a == b){return;}
+            if(a < b){int t = a; a = b; b = t;}
+            if(parent.compareAndSet(a, a, b)){return;}
+        }
+    }
+
+    /**
+     * This method computes betweenness (Brandes) and harmonic closeness of
+     * all the patterns: the visits from each source run in parallel
+     * @return: the centrality of the patterns
+     */
+    public Centrality centrality(){
+        final int n = patterns.size();
+        double[][] sums = invoke(new CentralityTask(0, n));
+        // Each undirected path has been counted from both its ends
+        for(int i=0; i<n; i++){sums[0][i] /= 2;}
+        return new Centrality(sums[0], sums[1]);
+    }
+
+    /**
+     * Visits from the sources of a range: betweenness and closeness summed
+     */
+    class CentralityTask extends RecursiveTask<double[][]> {
+        private static final long serialVersionUID = 1L;
+        final int from, to;
+
+        CentralityTask(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[][] compute(){
+            int n = patterns.size();
+            if(to - from > grain){
+                int mid = (from + to) >>> 1;
+                CentralityTask left = new CentralityTask(from, mid);
+                left.fork();
+                double[][] right = new CentralityTask(mid, to).compute();
+                double[][] result = left.join();
+                for(int i=0; i<n; i++){
+                    result[0][i] += right[0][i];
+                    result[1][i] += right[1][i];
+                }
+                return result;
+            }
+            double[] betweenness = new double[n];
+            double[] closeness = new double[n];
+            int[] dist = new int[n];
+            long[] paths = new long[n];
+            double[] delta = new double[n];
+            int[] order = new int[n];
+            for(int s = from; s < to; s++){
+                Arrays.fill(dist, -1);
+                Arrays.fill(paths, 0);
+                Arrays.fill(delta, 0);
+                int head = 0, tail = 0;
+                dist[s] = 0;
+                paths[s] = 1;
+                order[tail++] = s;
+                while(head < tail){
+                    int u = order[head++];
+                    if(u != s){closeness[s] += 1.0 / dist[u];}
+                    for(int e = offsets[u]; e < offsets[u + 1]; e++){
+                        int v = targets[e];
+                        if(dist[v] < 0){
+                            dist[v] = dist[u] + 1;
+                            order[tail++] = v;
+                        }
+                        if(dist[v] == dist[u] + 1){paths[v] += paths[u];}
+                    }
+                }
+                // Dependencies in order of decreasing distance
+                for(int i = tail - 1; i > 0; i--){
+                    int w = order[i];
+                    for(int e = offsets[w]; e < offsets[w + 1]; e++){
+                        int v = targets[e];
+                        if(dist[v] == dist[w] - 1){delta[v] += (double) paths[v] / paths[w] * (1 + delta[w]);}
+                    }
+                    betweenness[w] += delta[w];
+                }
+            }
+            return new double[][] {betweenness, closeness};
+        }
+    }
+
+    /**
+     * Action on each pattern of a range, split in parallel tasks
+     */
+    class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final IntConsumer action; // Work on a pattern
+        final int from, to;
+
+        RangeAction(IntConsumer action, int from, int to){
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > grain * 8){
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(action, from, mid), new RangeAction(action, mid, to));
+                return;
+            }
+            for(int u = from; u < to; u++){action.accept(u);}
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * This class runs the parallel computations (pattern graph, coverage): on the
+ * common pool of the JVM, or on a pool of their own when the number of threads
+ * is set, closed as soon as the computation ends.
+ */
+package ontoapp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+public class OntoCapecPool {
+
+    /**
+     * This method runs a task and waits for its result
+     * @param task: task to run
+     * @param parallelism: threads of the computation (0 for all the cores)
+     * @return: the result of the task
+     */
+    public static <T> T invoke(ForkJoinTask<T> task, int parallelism){
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+        try {
+            return pool.invoke(task);
+        } finally {
+            if(pool != ForkJoinPool.commonPool()){pool.shutdown();}
+        }
+    }
+}
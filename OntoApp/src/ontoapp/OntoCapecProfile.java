@@ -0,0 +1,37 @@
+/**
+ * This enumeration lists the reasoning profiles usable by OntoCapecReasoner,
+ * from the cheapest (no inference) to the most expensive (full OWL rules).
+ */
+package ontoapp;
+
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.reasoner.ReasonerRegistry;
+
+
+public enum OntoCapecProfile {
+    NONE,       // Only asserted triples
+    MATERIALIZED, // Closure kept by OntoCapecClosure (hierarchy, domain, range, symmetry): no reasoner at query time
+    TRANSITIVE, // Closure of subClassOf and subPropertyOf
+    RDFS,       // RDFS rules (hierarchies, domain and range typing)
+    OWL_MICRO,  // RDFS plus the most used OWL property axioms
+    OWL_MINI,   // OWL without the creation of new individuals
+    OWL;        // Full OWL rule reasoner (needed for the consistency checks)
+
+    /**
+     * This method returns a new (unbound) reasoner for the profile
+     * @return: the reasoner, or null for NONE and MATERIALIZED
+     */
+    public Reasoner createReasoner(){
+        switch(this){
+            case TRANSITIVE: return ReasonerRegistry.getTransitiveReasoner();
+            case RDFS: return ReasonerRegistry.getRDFSReasoner();
+            case OWL_MICRO: return ReasonerRegistry.getOWLMicroReasoner();
+            case OWL_MINI: return ReasonerRegistry.getOWLMiniReasoner();
+            case OWL: return ReasonerRegistry.getOWLReasoner();
+            default: return null;
+        }
+    }
+
+    // True if the profile has an inference model (tested without creating a reasoner)
+    public boolean hasInfModel() {return this != NONE && this != MATERIALIZED;}
+}
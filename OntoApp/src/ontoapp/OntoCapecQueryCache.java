@@ -0,0 +1,123 @@
+/**
+ * This class keeps the SPARQL queries already parsed, with their algebra, in a
+ * bounded LRU cache: a query asked again pays neither parsing nor compilation.
+ * It also offers parameterized templates, whose variables are bound to nodes
+ * instead of being concatenated in the text of the query.
+ */
+package ontoapp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+
+
+public class OntoCapecQueryCache {
+
+    /**
+     * Query parsed and compiled in algebra
+     */
+    public static class CompiledQuery {
+        final Query query;
+        final Op op;
+
+        CompiledQuery(Query query, Op op){
+            this.query = query;
+            this.op = op;
+        }
+
+        public Query getQuery() {return query;}
+        public Op getOp() {return op;}
+
+        /**
+         * This method evaluates the algebra of an ASK template with its
+         * variables bound, without parsing or compiling anything
+         * @param g: graph on which evaluate the query
+         * @param vars: names of the variables to bind
+         * @param values: nodes bound to the variables (same order)
+         * @return: true if the pattern has at least one solution
+         */
+        public boolean ask(Graph g, String[] vars, Node[] values){
+            BindingMap binding = BindingFactory.create();
+            for(int i=0; i<vars.length; i++){binding.add(Var.alloc(vars[i]), values[i]);}
+            QueryIterator it = Algebra.exec(Substitute.substitute(op, binding), g);
+            try {return it.hasNext();}
+            finally {it.close();}
+        }
+    }
+
+    // Attributes for customization
+    final String prefix; // Prefixes added before every query
+    int capacity;
+
+    // Statistics
+    long hits = 0;
+    long misses = 0;
+
+    final LinkedHashMap<String, CompiledQuery> cache;
+
+    public OntoCapecQueryCache(String prefix, int capacity){
+        this.prefix = prefix;
+        this.capacity = capacity;
+        // Access order: the eldest entry is the least recently used
+        this.cache = new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest){
+                return size() > OntoCapecQueryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * This method changes the number of queries kept, dropping the least
+     * recently used ones beyond it
+     * @param capacity: compiled queries kept in cache
+     */
+    public synchronized void setCapacity(int capacity){
+        this.capacity = capacity;
+        Iterator<CompiledQuery> eldest = cache.values().iterator();
+        while(cache.size() > capacity && eldest.hasNext()){
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // Getters of the statistics
+    public synchronized long getHits() {return hits;}
+    public synchronized long getMisses() {return misses;}
+    public synchronized int size() {return cache.size();}
+
+    /**
+     * This method returns a query parsed and compiled, from the cache if the
+     * same text has already been asked
+     * @param sparql: text of the query (without prefixes)
+     * @return: the compiled query (shared: do not change it)
+     */
+    public synchronized CompiledQuery get(String sparql){
+        CompiledQuery compiled = cache.get(sparql);
+        if(compiled != null){
+            hits++;
+            return compiled;
+        }
+        misses++;
+        Query query = QueryFactory.create(prefix + sparql);
+        compiled = new CompiledQuery(query, Algebra.optimize(Algebra.compile(query)));
+        cache.put(sparql, compiled);
+        return compiled;
+    }
+
+    public synchronized void clear(){
+        cache.clear();
+    }
+}
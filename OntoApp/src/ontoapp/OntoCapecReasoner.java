@@ -12,30 +12,42 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.jena.ontology.Individual;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.IntersectionClass;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
 
 import org.apache.jena.query.Query;
-import org.apache.jena.query.QueryExecException;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
-import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 
 import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.reasoner.Reasoner;
-import org.apache.jena.reasoner.ReasonerRegistry;
 import org.apache.jena.reasoner.ValidityReport;
+import org.apache.jena.reasoner.rulesys.BasicForwardRuleInfGraph;
+import org.apache.jena.sparql.graph.GraphFactory;
 import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
 
 
 public class OntoCapecReasoner {
@@ -48,8 +60,582 @@ public class OntoCapecReasoner {
                         "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
                         "PREFIX myns: <http://krstProj.com/capec#>";
     
+    // Templates of the built-in checks: variables are bound, not concatenated
+    final String subsumptionTemplate = "ASK WHERE { ?C rdfs:subClassOf ?D }";
+    final String instanceTemplate = "ASK WHERE { ?a rdf:type ?C }";
+    
     // Attributes for customization
     String queryExample = "SELECT ?sub ?obj WHERE { ?subj myns:hasName ?obj }";
+    int queryCacheSize = 256; // Compiled queries kept in cache
+    boolean cacheResults = true; // Set true to answer again the same tasks from memory until the model changes
+    int resultCacheSize = 512; // Results kept in cache
+    long resultCacheBytes = 16L << 20; // Estimated memory of the results kept in cache
+    
+    // Queries already parsed and compiled
+    final OntoCapecQueryCache queryCache;
+    
+    // Results of the tasks already answered, with the version of the model
+    final OntoCapecResultCache resultCache;
+    
+    // Reasoning profile of each task: the cheapest one that answers it correctly
+    OntoCapecProfile queryProfile = OntoCapecProfile.RDFS; // As the default ontology model
+    OntoCapecProfile subsumptionProfile = OntoCapecProfile.TRANSITIVE; // Closure of subClassOf
+    OntoCapecProfile instanceProfile = OntoCapecProfile.RDFS; // Types through hierarchy, domain and range
+    OntoCapecProfile consistencyProfile = OntoCapecProfile.OWL; // Disjointness and complex classes
+    
+    // Inference models of each model (one for each profile), reused by all the reasoning tasks.
+    // An inference model keeps its model alive: they are dropped by release() or clear()
+    final Map<Graph, EnumMap<OntoCapecProfile, CachedInference>> infCache = new HashMap<>();
+    
+    /**
+     * Inference model bound to a model and the versions of the model it reflects
+     */
+    static class CachedInference {
+        final Reasoner boundReasoner; // Reasoner with the T-Box already bound
+        final Model schema; // T-Box bound to the reasoner
+        final InfModel inf;
+        final long schemaVersion;
+        long version;
+        ValidityReport validity = null; // Computed at the first consistency check
+        
+        CachedInference(Reasoner boundReasoner, Model schema, InfModel inf, long schemaVersion, long version){
+            this.boundReasoner = boundReasoner;
+            this.schema = schema;
+            this.inf = inf;
+            this.schemaVersion = schemaVersion;
+            this.version = version;
+        }
+    }
+    
+    /**
+     * Reasoners of the workers of a pool, one for each thread: an inference
+     * model cannot be read by many threads, but the compiled queries and the
+     * results are shared by all the workers
+     */
+    public static class PerThread {
+        final OntoCapecReasoner owner = new OntoCapecReasoner(); // Owner of the shared caches
+        final List<OntoCapecReasoner> workers = new ArrayList<>();
+        volatile ThreadLocal<OntoCapecReasoner> reasoners = ThreadLocal.withInitial(this::create);
+        
+        private OntoCapecReasoner create(){
+            OntoCapecReasoner worker = new OntoCapecReasoner(owner.queryCache, owner.resultCache);
+            synchronized(workers){workers.add(worker);}
+            return worker;
+        }
+        
+        // Reasoner of the current worker
+        public OntoCapecReasoner get() {return reasoners.get();}
+        
+        // Getter of the shared cache of the results (for its statistics)
+        public OntoCapecResultCache getResultCache() {return owner.resultCache;}
+        
+        /**
+         * This method drops the reasoners of the workers with their inference
+         * models, when the pool shuts down: the workers of the next pool get
+         * new reasoners with the same caches
+         */
+        public void clear(){
+            reasoners = ThreadLocal.withInitial(this::create);
+            synchronized(workers){
+                for(OntoCapecReasoner worker : workers){worker.clear();}
+                workers.clear();
+            }
+        }
+    }
+    
+    public OntoCapecReasoner(){
+        queryCache = new OntoCapecQueryCache(prefix, queryCacheSize);
+        resultCache = new OntoCapecResultCache(resultCacheSize, resultCacheBytes);
+    }
+    
+    // Reasoner of a worker, with the caches of the others (see perThread)
+    OntoCapecReasoner(OntoCapecQueryCache queryCache, OntoCapecResultCache resultCache){
+        this.queryCache = queryCache;
+        this.resultCache = resultCache;
+    }
+    
+    /**
+     * This method returns the reasoners of the workers of a pool
+     * @return: a reasoner for each thread, with caches shared by all of them
+     */
+    public static PerThread perThread(){
+        return new PerThread();
+    }
+    
+    // Setters of the profiles of the tasks
+    public void setQueryProfile(OntoCapecProfile profile) {queryProfile = profile;}
+    public void setSubsumptionProfile(OntoCapecProfile profile) {subsumptionProfile = profile;}
+    public void setInstanceProfile(OntoCapecProfile profile) {instanceProfile = profile;}
+    public void setConsistencyProfile(OntoCapecProfile profile) {consistencyProfile = profile;}
+    
+    // Setter of the size of the cache of the queries (the least recently used beyond it are dropped)
+    public void setQueryCacheSize(int size) {queryCacheSize = size; queryCache.setCapacity(size);}
+    
+    // Setters of the cache of the results (the least recently used beyond the bounds are evicted)
+    public void setCacheResults(boolean cacheResults) {this.cacheResults = cacheResults;}
+    public void setResultCacheSize(int entries, long bytes) {resultCacheSize = entries; resultCacheBytes = bytes; resultCache.setLimits(entries, bytes);}
+    
+    // Getter of the cache of the results (for its statistics)
+    public OntoCapecResultCache getResultCache() {return resultCache;}
+    
+    /**
+     * This method drops the inference models and the indexes of a model no
+     * longer used
+     * @param m: model released
+     */
+    public synchronized void release(OntModel m){
+        infCache.remove(m.getBaseModel().getGraph());
+        OntoCapecRegistry.release(m.getBaseModel().getGraph());
+    }
+    
+    /**
+     * This method drops the inference models and the indexes of all the
+     * models reasoned on
+     */
+    public synchronized void clear(){
+        for(Graph g : infCache.keySet()){OntoCapecRegistry.release(g);}
+        infCache.clear();
+    }
+    
+    /**
+     * This method returns the model to use for a reasoning profile: the base
+     * model itself for NONE, the materialized closure for MATERIALIZED, the
+     * cached inference model otherwise
+     * @param m: model on which reason
+     * @param profile: reasoning profile
+     * @return: the model with the entailments of the profile
+     */
+    public synchronized Model getModel(OntModel m, OntoCapecProfile profile){
+        if(profile == OntoCapecProfile.NONE){return m.getBaseModel();}
+        if(profile == OntoCapecProfile.MATERIALIZED){return getClosure(m).getModel();}
+        return getInfModel(m, profile);
+    }
+    
+    /**
+     * This method returns the inference model of m for the consistency profile
+     * @param m: model on which reason
+     * @return: the inference model (shared, do not change it directly)
+     */
+    public InfModel getInfModel(OntModel m){
+        return getInfModel(m, consistencyProfile);
+    }
+    
+    /**
+     * This method returns the inference model of m for a profile. The reasoner
+     * is bound to the T-Box once and the inference model is cached: it is 
+     * rebuilt only if the T-Box changes, while changes of the individuals only
+     * rebind the data.
+     * @param m: model on which reason
+     * @param profile: reasoning profile (not NONE or MATERIALIZED)
+     * @return: the inference model (shared, do not change it directly)
+     */
+    public synchronized InfModel getInfModel(OntModel m, OntoCapecProfile profile){
+        if(!profile.hasInfModel()){
+            throw new IllegalArgumentException("The profile " + profile + " has no inference model");
+        }
+        Model base = m.getBaseModel();
+        OntoCapecVersion v = OntoCapecVersion.of(base.getGraph());
+        EnumMap<OntoCapecProfile, CachedInference> cachedModels = infCache.get(base.getGraph());
+        if(cachedModels == null){
+            cachedModels = new EnumMap<>(OntoCapecProfile.class);
+            infCache.put(base.getGraph(), cachedModels);
+        }
+        CachedInference cached = cachedModels.get(profile);
+        
+        if(cached == null || cached.schemaVersion != v.getSchemaVersion()){
+            // New or changed T-Box: bind the reasoner to the schema again
+            OntoCapecMetrics.Sample sample = OntoCapecMetrics.get().start();
+            long schemaVersion = v.getSchemaVersion();
+            Model schema = extractSchema(base);
+            Reasoner reasoner = profile.createReasoner().bindSchema(schema);
+            InfModel inf = ModelFactory.createInfModel(reasoner, base);
+            cached = new CachedInference(reasoner, schema, inf, schemaVersion, v.getVersion());
+            cachedModels.put(profile, cached);
+            prepare(inf, "inference.build." + profile, sample);
+        } else if(cached.version != v.getVersion()){
+            // Only individuals changed: the bound schema is kept, the data is read again
+            OntoCapecMetrics.Sample sample = OntoCapecMetrics.get().start();
+            cached.inf.rebind();
+            cached.version = v.getVersion();
+            cached.validity = null;
+            prepare(cached.inf, "inference.rebind." + profile, sample);
+        }
+        return cached.inf;
+    }
+    
+    /**
+     * This method computes the entailments of an inference model now (instead
+     * of at the first query) to measure the time and the rules fired
+     * @param inf: inference model just built or rebound
+     * @param phase: name of the phase in OntoCapecMetrics
+     * @param sample: start of the phase
+     */
+    void prepare(InfModel inf, String phase, OntoCapecMetrics.Sample sample){
+        Graph g = inf.getGraph();
+        long fired = g instanceof BasicForwardRuleInfGraph ? ((BasicForwardRuleInfGraph) g).getNRulesFired() : 0;
+        inf.prepare();
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        metrics.stop(phase, sample);
+        if(g instanceof BasicForwardRuleInfGraph){
+            // The count of the engine is cumulative, unless the engine is new
+            long total = ((BasicForwardRuleInfGraph) g).getNRulesFired();
+            metrics.increment("inference.rulesFired", total >= fired ? total - fired : total);
+        }
+    }
+    
+    /**
+     * This method returns a new inference model over an overlay (base model plus
+     * hypotheses) for the consistency profile. The reasoner already bound to the
+     * T-Box of the base is reused if the overlay asserts only individuals; 
+     * otherwise it is bound to the base T-Box plus the axioms of the overlay,
+     * without extracting the base again.
+     * @param overlay: overlay with the hypotheses
+     * @return: the inference model of the overlay (dropped with the overlay)
+     */
+    public InfModel getInfModel(OntoCapecOverlay overlay){
+        CachedInference cached;
+        OntoCapecProfile profile;
+        synchronized(this){
+            profile = consistencyProfile;
+            getInfModel(overlay.getBase(), profile);
+            cached = infCache.get(overlay.getBase().getBaseModel().getGraph()).get(profile);
+        }
+        Reasoner reasoner = cached.boundReasoner;
+        Model overlaySchema = extractSchema(overlay.getAdditionsModel());
+        if(!overlaySchema.isEmpty() || !overlay.getDeletions().isEmpty()){
+            Model schema = ModelFactory.createUnion(cached.schema, overlaySchema);
+            reasoner = profile.createReasoner().bindSchema(schema);
+        }
+        return ModelFactory.createInfModel(reasoner, overlay.getModel().getBaseModel());
+    }
+    
+    /**
+     * This method adds statements to m through its cached inference model of
+     * the consistency profile, so its entailments are updated incrementally 
+     * instead of being recomputed (the other profiles rebind their data)
+     * @param m: model to change
+     * @param statements: statements to add (individuals, not T-Box axioms)
+     */
+    public synchronized void addIncremental(OntModel m, Model statements){
+        InfModel inf = getInfModel(m);
+        CachedInference cached = infCache.get(m.getBaseModel().getGraph()).get(consistencyProfile);
+        OntoCapecVersion v = OntoCapecVersion.of(m.getBaseModel().getGraph());
+        inf.add(statements);
+        cached.validity = null;
+        if(cached.schemaVersion == v.getSchemaVersion()){cached.version = v.getVersion();}
+    }
+    
+    /**
+     * This method returns the validity report of the cached inference model of
+     * the consistency profile, computed only once for each version of the model
+     * @param m: model to validate
+     * @return: the validity report
+     */
+    public synchronized ValidityReport getValidity(OntModel m){
+        InfModel inf = getInfModel(m);
+        CachedInference cached = infCache.get(m.getBaseModel().getGraph()).get(consistencyProfile);
+        if(cached.validity == null){
+            OntoCapecMetrics metrics = OntoCapecMetrics.get();
+            OntoCapecMetrics.Sample sample = metrics.start();
+            cached.validity = inf.validate();
+            metrics.stop("validation", sample);
+            countReports(cached.validity);
+        }
+        return cached.validity;
+    }
+    
+    // Adds the reports of a validation to the counters of OntoCapecMetrics
+    void countReports(ValidityReport validity){
+        long errors = 0, warnings = 0;
+        Iterator<ValidityReport.Report> i = validity.getReports();
+        while(i.hasNext()){
+            if(i.next().isError()){errors++;}
+            else{warnings++;}
+        }
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        metrics.increment("validation.runs", 1);
+        metrics.increment("validation.errors", errors);
+        metrics.increment("validation.warnings", warnings);
+    }
+    
+    /**
+     * This method parses a query (or takes it from the cache) and measures the
+     * time spent
+     * @param query: text of the query (without prefixes)
+     * @return: the parsed query (shared, do not change it)
+     */
+    Query parse(String query){
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        Query qry = queryCache.get(query).getQuery();
+        metrics.stop("query.parse", query, sample);
+        return qry;
+    }
+    
+    /**
+     * This method returns the index of the class hierarchy of m, built at the
+     * first call and then updated with the classes and axioms added to m
+     * @param m: model on which reason
+     * @return: the index (shared)
+     */
+    public OntoCapecClassIndex getClassIndex(OntModel m){
+        return OntoCapecClassIndex.of(m.getBaseModel());
+    }
+    
+    /**
+     * This method returns the materialized closure of m, computed at the first
+     * call (or loaded with OntoCapecSnapshot) and then updated incrementally
+     * @param m: model on which reason
+     * @return: the closure (shared)
+     */
+    public OntoCapecClosure getClosure(OntModel m){
+        return OntoCapecClosure.of(m.getBaseModel());
+    }
+    
+    /**
+     * This method returns the engine of the class Risk of m, built at the
+     * first call and then updated with the triples added to m
+     * @param m: model on which reason
+     * @return: the engine (shared)
+     */
+    public OntoCapecRisk getRiskEngine(OntModel m){
+        return OntoCapecRisk.of(m.getBaseModel());
+    }
+    
+    /**
+     * This method ranks the attack patterns with a Risk attack by Severity and
+     * Likelihood (see OntoCapecRisk)
+     * @param m: model on which reason
+     * @param k: number of patterns to return
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> rankRisks(OntModel m, int k){
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|pattern|attack|score|exploits]\n");
+        results.addAll(OntoCapecRisk.format(getRiskEngine(m).topRisks(k)));
+        return results;
+    }
+    
+    /**
+     * This method returns the graph of the attack patterns of m linked by
+     * relatedPattern, built again when m changes
+     * @param m: model on which reason
+     * @return: the graph (shared)
+     */
+    public OntoCapecPatternGraph getPatternGraph(OntModel m){
+        return OntoCapecPatternGraph.of(m.getBaseModel());
+    }
+    
+    /**
+     * This method returns the patterns within some hops of a pattern
+     * @param m: model on which reason
+     * @param id: CAPEC ID of the pattern (as "66")
+     * @param hops: maximum number of relatedPattern to follow
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> relatedWithin(OntModel m, String id, int hops){
+        OntoCapecPatternGraph graph = getPatternGraph(m);
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|pattern|hops]\n");
+        int source = graph.getId(id);
+        if(source < 0){return results;}
+        int[] dist = graph.distances(source, hops, null);
+        for(int p : graph.withinHops(source, hops)){
+            results.add(Arrays.toString(new String[] {nameOf(m.asRDFNode(graph.getPattern(p))), String.valueOf(dist[p])}));
+        }
+        return results;
+    }
+    
+    /**
+     * This method returns a shortest chain of related patterns between two
+     * patterns
+     * @param m: model on which reason
+     * @param from: CAPEC ID of the first pattern
+     * @param to: CAPEC ID of the last pattern
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> patternPath(OntModel m, String from, String to){
+        OntoCapecPatternGraph graph = getPatternGraph(m);
+        ArrayList<String> results = new ArrayList<>();
+        int s = graph.getId(from), t = graph.getId(to);
+        int[] path = s < 0 || t < 0 ? new int[0] : graph.shortestPath(s, t);
+        if(path.length == 0){
+            results.add("NO PATH between " + from + " and " + to);
+            return results;
+        }
+        StringBuilder sb = new StringBuilder("PATH (" + (path.length - 1) + " hops): ");
+        for(int i=0; i<path.length; i++){
+            if(i > 0){sb.append(" -> ");}
+            sb.append(nameOf(m.asRDFNode(graph.getPattern(path[i]))));
+        }
+        results.add(sb.toString());
+        return results;
+    }
+    
+    /**
+     * This method returns the clusters of related patterns (connected
+     * components with more than one pattern), from the largest
+     * @param m: model on which reason
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> patternClusters(OntModel m){
+        OntoCapecPatternGraph graph = getPatternGraph(m);
+        int[] labels = graph.components();
+        Map<Integer, List<String>> clusters = new TreeMap<>();
+        for(int p=0; p<labels.length; p++){
+            List<String> cluster = clusters.get(labels[p]);
+            if(cluster == null){
+                cluster = new ArrayList<>();
+                clusters.put(labels[p], cluster);
+            }
+            cluster.add(nameOf(m.asRDFNode(graph.getPattern(p))));
+        }
+        List<List<String>> sorted = new ArrayList<>(clusters.values());
+        sorted.sort((a, b) -> b.size() - a.size());
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|size|patterns]\n");
+        for(List<String> cluster : sorted){
+            if(cluster.size() > 1){results.add("[" + cluster.size() + ", " + cluster + "]");}
+        }
+        return results;
+    }
+    
+    /**
+     * This method returns the most central patterns by betweenness
+     * @param m: model on which reason
+     * @param k: number of patterns
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> centralPatterns(OntModel m, int k){
+        OntoCapecPatternGraph graph = getPatternGraph(m);
+        final OntoCapecPatternGraph.Centrality c = graph.centrality();
+        List<Integer> ids = new ArrayList<>();
+        for(int p=0; p<graph.size(); p++){ids.add(p);}
+        ids.sort((a, b) -> Double.compare(c.getBetweenness(b), c.getBetweenness(a)));
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|pattern|betweenness|closeness]\n");
+        for(int p : ids.subList(0, Math.min(k, ids.size()))){
+            results.add(String.format("[%s, %.1f, %.2f]", nameOf(m.asRDFNode(graph.getPattern(p))), c.getBetweenness(p), c.getCloseness(p)));
+        }
+        return results;
+    }
+
+    /**
+     * This method returns the coverage matrices of the mitigations of m, built
+     * again when m changes
+     * @param m: model on which reason
+     * @return: the matrices (shared)
+     */
+    public OntoCapecCoverage getCoverage(OntModel m){
+        return OntoCapecCoverage.of(m.getBaseModel());
+    }
+
+    /**
+     * This method recommends the mitigations to add to the deployed ones: each
+     * one covers the most attacks still uncovered (greedy set cover)
+     * @param m: model on which reason
+     * @param deployed: local names of the mitigations deployed (unknown ones are ignored)
+     * @param budget: maximum number of mitigations to recommend
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> recommendMitigations(OntModel m, List<String> deployed, int budget){
+        OntoCapecCoverage coverage = getCoverage(m);
+        List<Integer> ids = new ArrayList<>();
+        for(String name : deployed){
+            int id = coverage.getMitigationId(name);
+            if(id >= 0){ids.add(id);}
+        }
+        int[] portfolio = new int[ids.size()];
+        for(int i=0; i<portfolio.length; i++){portfolio[i] = ids.get(i);}
+
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|mitigation|new attacks covered|coverage]\n");
+        int covered = coverage.evaluate(portfolio).getCovered();
+        for(int pick : coverage.greedyCover(portfolio, budget)){
+            portfolio = Arrays.copyOf(portfolio, portfolio.length + 1);
+            portfolio[portfolio.length - 1] = pick;
+            OntoCapecCoverage.Evaluation e = coverage.evaluate(portfolio);
+            results.add(String.format("[%s, %d, %.3f]", nameOf(m.asRDFNode(coverage.getMitigation(pick))),
+                    e.getCovered() - covered, e.getCoverage()));
+            covered = e.getCovered();
+        }
+        return results;
+    }
+
+    /**
+     * This method returns the index of the text of the patterns of m (filled
+     * during the creation of the model, or built from the model at the first
+     * call after a change)
+     * @param m: model on which reason
+     * @return: the index (shared)
+     */
+    public OntoCapecTextIndex getTextIndex(OntModel m){
+        return OntoCapecTextIndex.of(m.getBaseModel());
+    }
+
+    /**
+     * This method searches the patterns by the words of their text
+     * @param m: model on which reason
+     * @param text: words to search (word* for a prefix, word~ for typos)
+     * @param k: maximum number of patterns
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> searchPatterns(OntModel m, String text, int k){
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecTextIndex index = getTextIndex(m);
+        OntoCapecMetrics.Sample sample = metrics.start();
+        List<OntoCapecTextIndex.Hit> hits = index.search(text, k);
+        metrics.stop("text.search", text, sample);
+        ArrayList<String> results = new ArrayList<>();
+        results.add("RESULT in format: [|pattern|name|score]\n");
+        for(OntoCapecTextIndex.Hit hit : hits){
+            RDFNode pattern = m.asRDFNode(hit.getPattern());
+            Statement name = pattern.asResource().getProperty(m.getProperty(myns + "hasName"));
+            results.add(String.format("[%s, %s, %.2f]", nameOf(pattern), name == null ? "null" : nameOf(name.getObject()), hit.getScore()));
+        }
+        return results;
+    }
+
+    /**
+     * This method returns the index of the types of the individuals of m (filled
+     * during the creation of the model, or at the first call)
+     * @param m: model on which reason
+     * @return: the index (shared)
+     */
+    public OntoCapecInstanceIndex getInstanceIndex(OntModel m){
+        return OntoCapecInstanceIndex.of(m.getBaseModel());
+    }
+    
+    /**
+     * This method copies the T-Box of a model (classes, properties, axioms)
+     * @param m: model with T-Box and individuals
+     * @return: a new model with only the T-Box
+     */
+    public Model extractSchema(Model m){
+        Graph schema = GraphFactory.createGraphMem();
+        ExtendedIterator<Triple> it = m.getGraph().find();
+        try {
+            while(it.hasNext()){
+                Triple t = it.next();
+                if(OntoCapecVersion.isSchemaTriple(t)){schema.add(t);}
+            }
+        } finally {
+            it.close();
+        }
+        return ModelFactory.createModelForGraph(schema);
+    }
+    
+    /**
+     * This method returns the printable name of a node: the part of the URI 
+     * after '#' or the whole node if it has not it (blank nodes and literals)
+     * @param node: node to print
+     * @return: the name of the node
+     */
+    String nameOf(RDFNode node){
+        String str = node.toString();
+        int hash = str.indexOf('#');
+        return hash < 0 ? str : str.substring(hash + 1);
+    }
     
     /**
      * Method for query answering reasoning task
@@ -59,70 +645,172 @@ public class OntoCapecReasoner {
      * @return: the overall result in ArrayList
      */
     public ArrayList<String> makeQuery(OntModel m, String query){
-        ArrayList<String> resultsOfQuery = new ArrayList<>();
+        return makeQuery(m, query, queryProfile);
+    }
+    
+    /**
+     * Method for query answering reasoning task with a given reasoning profile
+     * @param m: model in which execute SPARQL query
+     * @param query: it can be a STRING representing the query or NULL if the 
+     * query is written by user interaction.
+     * @param profile: reasoning profile of the entailments seen by the query
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> makeQuery(OntModel m, String query, OntoCapecProfile profile){
+        String inputSparql = query;
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-            String inputSparql;
             
             // Check if query must be inserteb by user or not
             if("".equals(query) || query == null){
                 System.out.println("---/ Example: " + queryExample + " /---\n"
                         + "Write SPARQL query as in the example :");
                 inputSparql = reader.readLine();
-            } else {
-                inputSparql = query;
             }
-            
-            // Parameter for query management
-            String fullQuery = prefix + inputSparql;
-            Query qry = QueryFactory.create(fullQuery);
-            QueryExecution queryExec = QueryExecutionFactory.create(qry, m);
-            ResultSet resultSet;
-            boolean boolAsk;
-            
-            // Try: case in which the query is a SELECT query
-            try{
-                resultSet = queryExec.execSelect();
-                // Extract variables in the query
-                String[] vars = inputSparql.split("WHERE")[0].split("\\?"); 
-                int numVar = vars.length;
+        } catch (IOException ex) {
+            Logger.getLogger(OntoCapecModel.class.getName()).log(Level.SEVERE, null, ex);
+            return new ArrayList<>();
+        }
+        
+        if(inputSparql == null){return new ArrayList<>();} // End of the input
+        final String sparql = inputSparql;
+        if(!cacheResults){return answerQuery(m, sparql, profile);}
+        return resultCache.get(m.getBaseModel(), "query/" + profile, sparql, () -> answerQuery(m, sparql, profile));
+    }
+    
+    // Executes a query on the model of a profile and collects the results
+    ArrayList<String> answerQuery(OntModel m, String inputSparql, OntoCapecProfile profile){
+        final ArrayList<String> resultsOfQuery = new ArrayList<>();
+        // Parameter for query management (parsed only the first time)
+        Query qry = parse(inputSparql);
+        
+        if(qry.isAskType()){
+            // Case in which it is a boolean query through ASK
+            OntoCapecMetrics.Sample sample = OntoCapecMetrics.get().start();
+            QueryExecution queryExec = QueryExecutionFactory.create(qry, getModel(m, profile));
+            try {
+                boolean boolAsk = queryExec.execAsk();
+                OntoCapecMetrics.get().stop("query.execute", inputSparql, sample);
+//                    System.out.println("::: BOOLEAN CHECKING SOLUTION :::");
+//                    System.out.println(boolAsk);
+                resultsOfQuery.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
+            } finally {
+                queryExec.close();
+            }
+        } else {
+            // Case in which it is a SELECT query: print each solution as it arrives
+            streamQuery(m, inputSparql, qry, profile, 0, -1, new OntoCapecResultHandler() {
+                List<String> vars;
                 
-                // Initialize the print of the result
-                String varsStringPrint="";
-                for(int i=1; i<numVar; i++){
-                        varsStringPrint = varsStringPrint + "|" + vars[i].replace(" ", "");
-                    }
-//                System.out.println("RESULT in format: ["+varsStringPrint+"]");
-                resultsOfQuery.add("RESULT in format: ["+varsStringPrint+"]\n");
+                @Override
+                public void start(List<String> vars){
+                    this.vars = vars;
+                    String varsStringPrint = "";
+                    for(String var : vars){varsStringPrint = varsStringPrint + "|" + var;}
+//                        System.out.println("RESULT in format: ["+varsStringPrint+"]");
+                    resultsOfQuery.add("RESULT in format: ["+varsStringPrint+"]\n");
+                }
                 
-                // Parse the result
-                while(resultSet.hasNext()){
-                    QuerySolution sol = resultSet.nextSolution();
-                    String[] results = new String[numVar-1];
-                    for(int i=1; i<numVar; i++){
-                        RDFNode res = sol.get(vars[i].replace(" ", "")); 
-                        results[i-1] = res.toString().split("#")[1];
+                @Override
+                public boolean solution(QuerySolution sol){
+                    String[] results = new String[vars.size()];
+                    for(int i=0; i<results.length; i++){
+                        RDFNode res = sol.get(vars.get(i));
+                        results[i] = res == null ? null : nameOf(res);
                     }
                     // Print the result
-//                    System.out.println(Arrays.toString(results));
+//                        System.out.println(Arrays.toString(results));
                     resultsOfQuery.add(Arrays.toString(results));
+                    return true;
                 }
-            }
-            // Catch: the try fails, so it is a boolean query through ASK
-            catch(QueryExecException e){
-                boolAsk = queryExec.execAsk();
-//                System.out.println("::: BOOLEAN CHECKING SOLUTION :::");
-//                System.out.println(boolAsk);
-                resultsOfQuery.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
-            }
-            queryExec.close();             
-        } catch (IOException ex) {
-            Logger.getLogger(OntoCapecModel.class.getName()).log(Level.SEVERE, null, ex);
+            });
         }
         
         return resultsOfQuery;
     }
     
+    /**
+     * This method executes a SELECT query and streams its solutions to a 
+     * handler, without collecting them. The names of the variables come from 
+     * the result set. Paging is done by the query engine.
+     * @param m: model in which execute SPARQL query
+     * @param query: text of the SELECT query (without prefixes)
+     * @param profile: reasoning profile of the entailments seen by the query
+     * @param offset: solutions to skip (0 for none)
+     * @param limit: maximum number of solutions (-1 for all)
+     * @param handler: receiver of the solutions (it can stop the query)
+     * @return: the number of solutions given to the handler
+     */
+    public long streamQuery(OntModel m, String query, OntoCapecProfile profile, long offset, long limit, OntoCapecResultHandler handler){
+        return streamQuery(m, query, parse(query), profile, offset, limit, handler);
+    }
+    
+    // Executes a query already parsed, measuring execution (up to the first solution) and drain
+    long streamQuery(OntModel m, String query, Query qry, OntoCapecProfile profile, long offset, long limit, OntoCapecResultHandler handler){
+        if(!qry.isSelectType()){
+            throw new IllegalArgumentException("Only SELECT queries can be streamed");
+        }
+        if(offset > 0 || limit >= 0){
+            // Page on a copy: the cached query is shared
+            qry = qry.cloneQuery();
+            if(offset > 0){qry.setOffset(offset);}
+            if(limit >= 0){qry.setLimit(limit);}
+        }
+        
+        long count = 0;
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        QueryExecution queryExec = QueryExecutionFactory.create(qry, getModel(m, profile));
+        try {
+            ResultSet resultSet = queryExec.execSelect();
+            boolean more = resultSet.hasNext();
+            metrics.stop("query.execute", query, sample);
+            sample = metrics.start();
+            handler.start(resultSet.getResultVars());
+            while(more){
+                count++;
+                if(!handler.solution(resultSet.next())){
+                    queryExec.abort(); // Early cancellation
+                    break;
+                }
+                more = resultSet.hasNext();
+            }
+        } finally {
+            queryExec.close();
+        }
+        metrics.stop("query.drain", query, sample);
+        metrics.increment("query.results", count);
+        return count;
+    }
+    
+    /**
+     * This method executes a SELECT query with the profile of query answering
+     * (see streamQuery with profile)
+     */
+    public long streamQuery(OntModel m, String query, long offset, long limit, OntoCapecResultHandler handler){
+        return streamQuery(m, query, queryProfile, offset, limit, handler);
+    }
+    
+    /**
+     * This method answers a built-in ASK template with its variables bound to
+     * concepts or individuals of the ontology
+     * @param m: model on which reason
+     * @param template: ASK query with the variables to bind
+     * @param vars: names of the variables
+     * @param names: local names (in myns) bound to the variables
+     * @param profile: reasoning profile of the entailments seen by the query
+     * @return: the overall result in ArrayList
+     */
+    public ArrayList<String> askTemplate(OntModel m, String template, String[] vars, String[] names, OntoCapecProfile profile){
+        Node[] values = new Node[names.length];
+        for(int i=0; i<names.length; i++){values[i] = NodeFactory.createURI(myns + names[i]);}
+        boolean boolAsk = queryCache.get(template).ask(getModel(m, profile).getGraph(), vars, values);
+        
+        ArrayList<String> results = new ArrayList<>();
+        results.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
+        return results;
+    }
+    
     /**
      * This methods is able to generate and detect inconsistency of two types:
      * 1. Instances do not respect ontology (Ontology consistency)
@@ -136,31 +824,39 @@ public class OntoCapecReasoner {
     public ArrayList<String> detectInconsistency(OntModel m, boolean ontoInc, boolean conceptInc){
         
         ArrayList<String> results = new ArrayList<>();
+        
+        // Hypotheses are asserted in an overlay, so the model m is not changed
+        OntoCapecOverlay overlay = new OntoCapecOverlay(m);
+        OntModel hyp = overlay.getModel();
+        
         /* Example violation 1 (ontology consistency):
         create two disjoint classes and intersect them, the result is inconsitent */
         if(ontoInc){
-            OntClass conf1 = m.createClass(myns+"Conf1");
-            OntClass conf2 = m.createClass(myns+"Conf2");
+            OntClass conf1 = hyp.createClass(myns+"Conf1");
+            OntClass conf2 = hyp.createClass(myns+"Conf2");
             conf1.addDisjointWith(conf2);
-            IntersectionClass conflict = m.createIntersectionClass( myns + "Conflict", 
-                    m.createList( new RDFNode[] {conf1, conf2} ) );
+            IntersectionClass conflict = hyp.createIntersectionClass( myns + "Conflict", 
+                    hyp.createList( new RDFNode[] {conf1, conf2} ) );
         }
         
         /* Example violation 2 (concept consistency):
         classes have common instances, so disjointnes create inconsistency */
         if(conceptInc){
-            OntClass resource = m.getOntClass(myns + "Resource");
-            OntClass skill = m.getOntClass(myns + "Skill");
+            OntClass resource = hyp.getOntClass(myns + "Resource");
+            OntClass skill = hyp.getOntClass(myns + "Skill");
             resource.addDisjointWith(skill);
         }
         
-        // Start reasoner
-        Reasoner reasoner = ReasonerRegistry.getOWLReasoner();
-        InfModel inf = ModelFactory.createInfModel(reasoner, m);
-        
-        // Check validity of consistency
-        ValidityReport validity = inf.validate();
-        if (validity.isValid()){
+        // Check validity of consistency (reasoner and report reused if there are no hypotheses)
+        ValidityReport validity;
+        if(overlay.isEmpty()){validity = getValidity(m);}
+        else{
+            OntoCapecMetrics.Sample sample = OntoCapecMetrics.get().start();
+            validity = getInfModel(overlay).validate();
+            OntoCapecMetrics.get().stop("validation.overlay", sample);
+            countReports(validity);
+        }
+        if (validity.isClean()){
 //            System.out.println("The model is Consistent");
             results.add("The model is Consistent");
         }
@@ -187,10 +883,31 @@ public class OntoCapecReasoner {
      * @return: the overall result in ArrayList
      */
     public ArrayList<String> findSubclass(OntModel m, String C, String D){
+        if(!cacheResults){return subsumption(m, C, D);}
+        return resultCache.get(m.getBaseModel(), "subsumption/" + subsumptionProfile, C + "|" + D, () -> subsumption(m, C, D));
+    }
+    
+    // Answers a subsumption task on the model
+    ArrayList<String> subsumption(OntModel m, String C, String D){
         ArrayList<String> results = new ArrayList<>();
-        if("".equals(C) || "".equals(D)){
+        if(subsumptionProfile == OntoCapecProfile.TRANSITIVE){
+            // The closure of the hierarchy is precomputed: no query is needed
+            OntoCapecClassIndex index = getClassIndex(m);
+            if("".equals(C) || "".equals(D)){
+                // Example 1: T-Box classification
+                results.add("RESULT in format: [|superclass|subclass]\n");
+                for(Node[] pair : index.classification()){
+                    results.add(Arrays.toString(new String[] {nameOf(m.asRDFNode(pair[0])), nameOf(m.asRDFNode(pair[1]))}));
+                }
+                results.sort(null);
+            } else{
+                // Example 2: Concept subsumption
+                boolean boolAsk = index.isSubClassOf(NodeFactory.createURI(myns + C), NodeFactory.createURI(myns + D));
+                results.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
+            }
+        } else if("".equals(C) || "".equals(D)){
             // Example 1: T-Box classification
-            results = makeQuery(m, "SELECT ?superclass ?subclass WHERE { ?subclass rdfs:subClassOf ?superclass }");
+            results = makeQuery(m, "SELECT ?superclass ?subclass WHERE { ?subclass rdfs:subClassOf ?superclass }", subsumptionProfile);
             results.sort(null);
             for(int i=1; i<results.size(); i++){
                 String[] splitted = results.get(i).split(",");
@@ -200,7 +917,7 @@ public class OntoCapecReasoner {
             }
         } else{
             // Example 2: Concept subsumption
-            results = makeQuery(m, "ASK WHERE{ myns:"+ C + " rdfs:subClassOf myns:"+ D + " }");
+            results = askTemplate(m, subsumptionTemplate, new String[] {"C", "D"}, new String[] {C, D}, subsumptionProfile);
         }
         return results;
     }
@@ -216,19 +933,47 @@ public class OntoCapecReasoner {
      * @return: the overall result in ArrayList
      */
     public ArrayList<String> instanceChecking(OntModel m, String a, String C){
+        if(!cacheResults){return instances(m, a, C);}
+        return resultCache.get(m.getBaseModel(), "instance/" + instanceProfile, a + "|" + C, () -> instances(m, a, C));
+    }
+    
+    // Answers an instance task on the model
+    ArrayList<String> instances(OntModel m, String a, String C){
         ArrayList<String> results = new ArrayList<>();
-        if("".equals(a)){
+        if("Risk".equals(C) && instanceProfile != OntoCapecProfile.NONE){
+            // The members of Risk are counted by its engine: no OWL reasoner is needed
+            OntoCapecRisk engine = getRiskEngine(m);
+            if("".equals(a)){
+                for(Node member : engine.listMembers()){results.add(nameOf(m.asRDFNode(member)));}
+            } else{
+                boolean boolAsk = engine.isRisk(NodeFactory.createURI(myns + a));
+                results.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
+            }
+        } else if(instanceProfile == OntoCapecProfile.RDFS){
+            // The index has the same types entailed by RDFS: no query is needed
+            OntoCapecInstanceIndex index = getInstanceIndex(m);
+            if("".equals(a)){
+                // Example 1: instance retrieval
+                for(Node instance : index.listInstances(NodeFactory.createURI(myns + C))){
+                    results.add(nameOf(m.asRDFNode(instance)));
+                }
+            } else{
+                // Example 2: instance checking
+                boolean boolAsk = index.isInstanceOf(NodeFactory.createURI(myns + a), NodeFactory.createURI(myns + C));
+                results.add("BOOLEAN CHECKING SOLUTION: " + boolAsk);
+            }
+        } else if("".equals(a)){
             // Example 1: instance retrieval
-            OntClass conceptC = m.getOntClass(myns + C);
-            ExtendedIterator instances = conceptC.listInstances();
+            Model inf = getModel(m, instanceProfile);
+            ResIterator instances = inf.listSubjectsWithProperty(RDF.type, inf.getResource(myns + C));
             while (instances.hasNext()){
-                Individual thisInstance = (Individual) instances.next();
+                Resource thisInstance = instances.next();
 //                System.out.println(thisInstance.toString().split("#")[1]);
-                results.add(thisInstance.toString().split("#")[1]);
+                results.add(nameOf(thisInstance));
             }
         } else{
             // Example 2: instance checking
-            results = makeQuery(m, "ASK WHERE{ myns:"+ a + " rdf:type myns:"+ C + " }");
+            results = askTemplate(m, instanceTemplate, new String[] {"a", "C"}, new String[] {a, C}, instanceProfile);
         }
         return results;
     }
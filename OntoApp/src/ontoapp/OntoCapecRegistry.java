@@ -0,0 +1,115 @@
+/**
+ * This class keeps one object computed from a graph (an index, a closure, a
+ * version...) for each graph, built the first time it is asked. The keys are
+ * weak, so the entries of a graph no longer used disappear with it, but a
+ * value listening to its graph keeps working on every change until the graph
+ * is collected: release() drops the entries of a graph in all the registries
+ * at once and unregisters their listeners.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.rdf.model.ModelChangedListener;
+import org.apache.jena.rdf.model.ModelFactory;
+
+
+public class OntoCapecRegistry<X> {
+
+    // Registries dropped by release() (the values must not refer to their graph)
+    static final List<OntoCapecRegistry<?>> releasable = new CopyOnWriteArrayList<>();
+
+    final Map<Graph, X> entries = new WeakHashMap<>();
+
+    /**
+     * @param release: true if release() drops the entries of this registry,
+     * false for the values that must outlive the objects computed from them
+     */
+    public OntoCapecRegistry(boolean release){
+        if(release){releasable.add(this);}
+    }
+
+    /**
+     * This method returns the value of a graph, built the first time
+     * @param g: graph (base graph of the model)
+     * @param factory: builds the value (under the lock of the registry)
+     * @return: the value of the graph
+     */
+    public X get(Graph g, Supplier<X> factory){
+        return get(g, factory, null);
+    }
+
+    /**
+     * This method returns the value of a graph, built again when it is out of
+     * date: a snapshot of the graph is replaced instead of being updated
+     * @param g: graph (base graph of the model)
+     * @param factory: builds the value (under the lock of the registry)
+     * @param current: true if the value is still up to date (null: always)
+     * @return: the value of the graph
+     */
+    public X get(Graph g, Supplier<X> factory, Predicate<X> current){
+        synchronized(entries){
+            X x = entries.get(g);
+            if(x == null || (current != null && !current.test(x))){
+                if(x != null){unregister(g, x);}
+                x = factory.get();
+                entries.put(g, x);
+            }
+            return x;
+        }
+    }
+
+    /**
+     * This method replaces the value of a graph, built elsewhere
+     * @param g: graph (base graph of the model)
+     * @param x: new value
+     */
+    public void put(Graph g, X x){
+        synchronized(entries){
+            X old = entries.put(g, x);
+            if(old != null && old != x){unregister(g, old);}
+        }
+    }
+
+    /**
+     * This method drops the value of a graph from this registry
+     * @param g: graph no longer used
+     */
+    public void remove(Graph g){
+        X x;
+        synchronized(entries){x = entries.remove(g);}
+        if(x != null){unregister(g, x);}
+    }
+
+    /**
+     * This method drops the values of all the graphs from this registry
+     */
+    public void clear(){
+        List<Graph> graphs;
+        synchronized(entries){graphs = new ArrayList<>(entries.keySet());}
+        for(Graph g : graphs){remove(g);}
+    }
+
+    /**
+     * This method drops the indexes of a graph from all the registries that
+     * can be released (the versions stay, the caches still compare them)
+     * @param g: graph no longer used (base graph of the model)
+     */
+    public static void release(Graph g){
+        for(OntoCapecRegistry<?> registry : releasable){registry.remove(g);}
+    }
+
+    // A listener of the model is registered through an adapter equal for the same graph
+    private static void unregister(Graph g, Object x){
+        if(x instanceof ModelChangedListener){ModelFactory.createModelForGraph(g).unregister((ModelChangedListener) x);}
+        if(x instanceof GraphListener){g.getEventManager().unregister((GraphListener) x);}
+    }
+}
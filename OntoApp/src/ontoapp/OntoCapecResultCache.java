@@ -0,0 +1,225 @@
+/**
+ * This class keeps the results of the reasoning tasks already answered. A
+ * result is stored with the version of the model (see OntoCapecVersion) it
+ * was computed on: while the model does not change the same question is
+ * answered from memory, and any triple added or removed makes it a miss. The
+ * questions are normalized (spaces out of literals and IRIs do not count) and
+ * the cache is an LRU bounded both in entries and in the estimated memory of
+ * the results.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.rdf.model.Model;
+
+
+public class OntoCapecResultCache {
+
+    /**
+     * Result of a question and version of the model it reflects
+     */
+    static class Entry {
+        final ArrayList<String> result;
+        final long version;
+        final long bytes;
+
+        Entry(ArrayList<String> result, long version, long bytes){
+            this.result = result;
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    // Attributes for customization
+    int maxEntries;
+    long maxBytes; // Estimated memory of the results kept
+
+    // Statistics
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    long invalidations = 0; // Misses of results of an older version
+    long bytes = 0;
+
+    // Results in access order: the eldest entry is the least recently used
+    final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Number of each model in the keys (the keys do not keep the models alive)
+    final Map<Graph, Long> graphIds = new WeakHashMap<>();
+    long nextGraphId = 0;
+
+    public OntoCapecResultCache(int maxEntries, long maxBytes){
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    // Getters of the statistics
+    public synchronized long getHits() {return hits;}
+    public synchronized long getMisses() {return misses;}
+    public synchronized long getEvictions() {return evictions;}
+    public synchronized long getInvalidations() {return invalidations;}
+    public synchronized long getBytes() {return bytes;}
+    public synchronized int size() {return cache.size();}
+
+    /**
+     * This method changes the bounds of the cache, evicting the least recently
+     * used results beyond them
+     * @param maxEntries: results kept in cache
+     * @param maxBytes: estimated memory of the results kept
+     */
+    public synchronized void setLimits(int maxEntries, long maxBytes){
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * This method returns the result of a question, computing it only if it
+     * is not in the cache for the current version of the model
+     * @param m: model asked (base model)
+     * @param task: kind of question and its reasoning profile (as "query/RDFS")
+     * @param question: text of the question (normalized here)
+     * @param compute: computation of the result on a miss
+     * @return: a copy of the result (free to change)
+     */
+    public ArrayList<String> get(Model m, String task, String question, Supplier<ArrayList<String>> compute){
+        Graph g = m.getGraph();
+        long version = OntoCapecVersion.of(g).getVersion(); // Read before computing: a change meanwhile is a miss later
+        String key;
+        synchronized(this){
+            key = graphId(g) + "|" + task + "|" + normalize(question);
+            Entry entry = cache.get(key);
+            if(entry != null && entry.version == version){
+                hits++;
+                OntoCapecMetrics.get().increment("cache.results.hits", 1);
+                return new ArrayList<>(entry.result);
+            }
+            if(entry != null){
+                remove(key);
+                invalidations++;
+            }
+            misses++;
+        }
+        OntoCapecMetrics.get().increment("cache.results.misses", 1);
+
+        ArrayList<String> result = compute.get();
+        put(key, new Entry(new ArrayList<>(result), version, estimate(key, result)));
+        return result;
+    }
+
+    private long graphId(Graph g){
+        Long id = graphIds.get(g);
+        if(id == null){
+            id = nextGraphId++;
+            graphIds.put(g, id);
+        }
+        return id;
+    }
+
+    // Adds an entry, then evicts the least recently used ones beyond the bounds
+    private synchronized void put(String key, Entry entry){
+        if(entry.bytes > maxBytes){return;} // It would evict everything else
+        remove(key);
+        cache.put(key, entry);
+        bytes += entry.bytes;
+        evict();
+    }
+
+    private void evict(){
+        Iterator<Entry> eldest = cache.values().iterator();
+        while((cache.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()){
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key){
+        Entry old = cache.remove(key);
+        if(old != null){bytes -= old.bytes;}
+    }
+
+    // Estimated memory of an entry: the chars of the strings and the headers of the objects
+    static long estimate(String key, List<String> result){
+        long size = 64 + 2L * key.length();
+        for(String line : result){size += 56 + 2L * line.length();}
+        return size;
+    }
+
+    /**
+     * This method normalizes the text of a question: the comments (from # to
+     * the end of the line) are dropped, the runs of spaces become one space and
+     * the spaces at the ends are dropped, except inside quoted literals (also
+     * the long ones, in triple quotes) and IRIs
+     * @param text: text of the question
+     * @return: the normalized text
+     */
+    static String normalize(String text){
+        StringBuilder sb = new StringBuilder(text.length());
+        String close = null; // End of the literal or IRI being copied (null outside)
+        boolean space = false;
+        int i = 0;
+        while(i < text.length()){
+            char c = text.charAt(i);
+            if(close != null){
+                if(text.startsWith(close, i)){
+                    sb.append(close);
+                    i += close.length();
+                    close = null;
+                    continue;
+                }
+                sb.append(c);
+                i++;
+                if(c == '\\' && !">".equals(close) && i < text.length()){sb.append(text.charAt(i++));} // Escaped char
+                continue;
+            }
+            if(c == '#'){
+                // Comment: it ends the words before it, as a space
+                while(i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r'){i++;}
+                space = true;
+                continue;
+            }
+            if(Character.isWhitespace(c)){
+                space = true;
+                i++;
+                continue;
+            }
+            if(space && sb.length() > 0){sb.append(' ');}
+            space = false;
+            if(c == '"' || c == '\''){
+                String quotes = new String(new char[] {c, c, c});
+                close = text.startsWith(quotes, i) ? quotes : String.valueOf(c);
+                sb.append(close);
+                i += close.length();
+                continue;
+            }
+            if(c == '<'){close = ">";}
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This method returns the statistics in a printable form
+     * @return: hits, misses, evictions, invalidations, entries and memory
+     */
+    public synchronized String report(){
+        long total = hits + misses;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %d entries, %d KB",
+                hits, misses, total == 0 ? 0 : 100.0 * hits / total, evictions, invalidations, cache.size(), bytes / 1024);
+    }
+
+    public synchronized void clear(){
+        cache.clear();
+        bytes = 0;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * This interface receives the result of a SELECT query one solution at a time,
+ * so the result is never materialized: the handler decides what to keep and
+ * whether to turn the nodes in strings.
+ */
+package ontoapp;
+
+import java.util.List;
+
+import org.apache.jena.query.QuerySolution;
+
+
+public interface OntoCapecResultHandler {
+
+    /**
+     * This method is called once, before the solutions
+     * @param vars: names of the variables of the result (as in the query)
+     */
+    void start(List<String> vars);
+
+    /**
+     * This method is called for each solution, in order
+     * @param sol: the solution (valid only during the call)
+     * @return: true to go on, false to stop the query (cancellation)
+     */
+    boolean solution(QuerySolution sol);
+}
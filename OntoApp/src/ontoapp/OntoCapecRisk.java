@@ -0,0 +1,354 @@
+/**
+ * This class evaluates the class Risk of the ontology (at least 2 exploits and
+ * some implied Consequence) without the OWL reasoner: the exploits and the
+ * consequences of each attack are counted while the triples are read, so all
+ * the members are found in one linear pass and then kept up to date with the
+ * triples added. Each attack pattern with a Risk attack gets a score from its
+ * Severity and Likelihood, and the riskiest patterns are ranked with a
+ * bounded heap.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.listeners.StatementListener;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+
+public class OntoCapecRisk extends StatementListener {
+
+    // Engine of each model already observed (one listener for each model)
+    static final OntoCapecRegistry<OntoCapecRisk> engines = new OntoCapecRegistry<>(true);
+
+    // Levels of Severity and Likelihood, from the lowest (score 1) to the highest
+    static final String[] severityLevels = {"Very Low", "Low", "Medium", "High", "Very High"};
+    static final String[] likelihoodLevels = {"Low", "Medium", "High"};
+
+    /**
+     * Attack pattern in the ranking
+     */
+    public static class Ranked {
+        final Node pattern;
+        final Node attack; // Riskiest attack of the pattern
+        final double score;
+        final int exploits;
+
+        Ranked(Node pattern, Node attack, double score, int exploits){
+            this.pattern = pattern;
+            this.attack = attack;
+            this.score = score;
+            this.exploits = exploits;
+        }
+
+        public Node getPattern() {return pattern;}
+        public Node getAttack() {return attack;}
+        public double getScore() {return score;}
+        public int getExploits() {return exploits;}
+    }
+
+    // Higher score first, then more exploits, then the name of the pattern
+    static final Comparator<Ranked> ranking = (a, b) -> {
+        int c = Double.compare(b.score, a.score);
+        if(c == 0){c = Integer.compare(b.exploits, a.exploits);}
+        return c != 0 ? c : a.pattern.getURI().compareTo(b.pattern.getURI());
+    };
+
+    /**
+     * Counters of an attack
+     */
+    static class Attack {
+        final HashSet<Node> exploited = new HashSet<>();
+        final ArrayList<Node> implied = new ArrayList<>(1);
+        Node pattern = null;
+        boolean risk = false;
+    }
+
+    // Properties and classes of the definition of Risk
+    final Node exploits, implies, relatedTo, hasSeverity, hasLikelihood, consequence;
+
+    // Attributes for customization
+    int minExploits = 2; // As the minCardinality of Risk
+    double unknownSeverity = 3; // Score of a pattern without Severity (as Medium)
+    double unknownLikelihood = 2; // Score of a pattern without Likelihood (as Medium)
+
+    // Counters of the attacks and values of the patterns
+    final HashMap<Node, Attack> attacks = new HashMap<>();
+    final HashMap<Node, List<Node>> patternAttacks = new HashMap<>();
+    final HashMap<Node, List<Node>> impliedBy = new HashMap<>();
+    final HashMap<Node, Node> severity = new HashMap<>();
+    final HashMap<Node, Node> likelihood = new HashMap<>();
+    final HashSet<Node> consequences = new HashSet<>(); // Individuals typed Consequence
+    boolean consequenceRange = false; // True if the range of implies is Consequence
+
+    // Members of Risk and best score of each pattern with a member
+    final HashSet<Node> members = new HashSet<>();
+    final HashMap<Node, Ranked> scores = new HashMap<>();
+
+    // Last ranking computed (for topK patterns), valid until a score enters it
+    List<Ranked> top = null;
+    int topK = 0;
+
+    boolean stale = false; // True when a triple has been removed
+
+    OntoCapecRisk(String myns){
+        exploits = NodeFactory.createURI(myns + "exploits");
+        implies = NodeFactory.createURI(myns + "implies");
+        relatedTo = NodeFactory.createURI(myns + "relatedTo");
+        hasSeverity = NodeFactory.createURI(myns + "hasSeverity");
+        hasLikelihood = NodeFactory.createURI(myns + "hasLikelihood");
+        consequence = NodeFactory.createURI(myns + "Consequence");
+    }
+
+    /**
+     * This method returns the engine of a model: the members of Risk are found
+     * the first time, then kept up to date with the triples added
+     * @param m: model to evaluate (base model, without inference)
+     * @return: the engine
+     */
+    public static OntoCapecRisk of(Model m){
+        OntoCapecRisk engine = engines.get(m.getGraph(), () -> {
+            OntoCapecRisk created = new OntoCapecRisk(new OntoCapecModel().getMynsUri());
+            synchronized(created){
+                created.load(m);
+                m.register(created);
+            }
+            return created;
+        });
+        engine.refresh(m);
+        return engine;
+    }
+
+    // One pass on the triples of the properties of Risk
+    private void load(Model m){
+        for(Node p : new Node[] {exploits, implies, relatedTo, hasSeverity, hasLikelihood}){
+            load(m.listStatements(null, m.createProperty(p.getURI()), (RDFNode) null));
+        }
+        load(m.listStatements(null, RDF.type, m.asRDFNode(consequence)));
+        load(m.listStatements(m.createResource(implies.getURI()), RDFS.range, (RDFNode) null));
+    }
+
+    private void load(StmtIterator it){
+        try {
+            while(it.hasNext()){addedStatement(it.next());}
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * This method evaluates again all the attacks if triples have been removed
+     * @param m: model of the engine
+     */
+    synchronized void refresh(Model m){
+        if(!stale){return;}
+        attacks.clear();
+        patternAttacks.clear();
+        impliedBy.clear();
+        severity.clear();
+        likelihood.clear();
+        consequences.clear();
+        consequenceRange = false;
+        members.clear();
+        scores.clear();
+        top = null;
+        stale = false;
+        load(m);
+    }
+
+    // Getters of the engine
+    public synchronized boolean isStale() {return stale;}
+    public synchronized int size() {return members.size();}
+    public synchronized boolean isRisk(Node attack) {return members.contains(attack);}
+
+    /**
+     * This method returns the members of Risk
+     * @return: the attacks (sorted by name)
+     */
+    public synchronized List<Node> listMembers(){
+        List<Node> result = new ArrayList<>(members);
+        result.sort(Comparator.comparing(Node::getURI));
+        return result;
+    }
+
+    /**
+     * This method returns the riskiest attack patterns. The ranking is kept
+     * until a new score can enter it, so repeated calls cost nothing.
+     * @param k: number of patterns
+     * @return: the k patterns with the highest score, from the riskiest
+     */
+    public synchronized List<Ranked> topRisks(int k){
+        if(top == null || k > topK){
+            // Bounded heap with the lowest of the best k on top
+            PriorityQueue<Ranked> heap = new PriorityQueue<>(k + 1, ranking.reversed());
+            for(Ranked r : scores.values()){
+                heap.offer(r);
+                if(heap.size() > k){heap.poll();}
+            }
+            top = new ArrayList<>(heap);
+            top.sort(ranking);
+            topK = k;
+        }
+        return new ArrayList<>(top.subList(0, Math.min(k, top.size())));
+    }
+
+    // Score of the level of a value (by its local name), or the default
+    static double level(Node value, String[] levels, double unknown){
+        if(value == null || !value.isURI()){return unknown;}
+        String name = value.getURI();
+        name = name.substring(name.indexOf('#') + 1);
+        for(int i=0; i<levels.length; i++){
+            if(levels[i].equals(name)){return i + 1;}
+        }
+        return unknown;
+    }
+
+    // Counters of an attack (created at the first triple)
+    Attack attack(Node a){
+        Attack state = attacks.get(a);
+        if(state == null){
+            state = new Attack();
+            attacks.put(a, state);
+        }
+        return state;
+    }
+
+    // Adds v to the list of key
+    static void link(HashMap<Node, List<Node>> map, Node key, Node v){
+        List<Node> list = map.get(key);
+        if(list == null){
+            list = new ArrayList<>(1);
+            map.put(key, list);
+        }
+        list.add(v);
+    }
+
+    boolean isConsequence(Node n){
+        return consequenceRange || consequences.contains(n);
+    }
+
+    // Checks the definition of Risk for an attack
+    void evaluate(Node a, Attack state){
+        boolean risk = state.exploited.size() >= minExploits;
+        if(risk){
+            risk = false;
+            for(Node c : state.implied){
+                if(isConsequence(c)){
+                    risk = true;
+                    break;
+                }
+            }
+        }
+        if(risk == state.risk){
+            if(risk){score(state.pattern);} // The exploits count in the ranking
+            return;
+        }
+        state.risk = risk;
+        if(risk){members.add(a);}
+        else{members.remove(a);}
+        score(state.pattern);
+    }
+
+    // Computes the score of a pattern with its riskiest attack
+    void score(Node pattern){
+        if(pattern == null){return;}
+        double value = level(severity.get(pattern), severityLevels, unknownSeverity)
+                * level(likelihood.get(pattern), likelihoodLevels, unknownLikelihood);
+        Ranked best = null;
+        List<Node> list = patternAttacks.get(pattern);
+        if(list != null){
+            for(Node a : list){
+                Attack state = attacks.get(a);
+                if(state.risk){
+                    Ranked r = new Ranked(pattern, a, value, state.exploited.size());
+                    if(best == null || ranking.compare(r, best) < 0){best = r;}
+                }
+            }
+        }
+        Ranked old = best == null ? scores.remove(pattern) : scores.put(pattern, best);
+        // The ranking is still valid if the pattern was not in it and does not enter it
+        if(top != null && (old != null || best != null)){
+            boolean wasIn = old != null && top.contains(old);
+            boolean entersIn = best != null && (top.size() < topK || ranking.compare(best, top.get(top.size() - 1)) < 0);
+            if(wasIn || entersIn){top = null;}
+        }
+    }
+
+    @Override
+    public synchronized void addedStatement(Statement s){
+        if(stale){return;}
+        Node subject = s.getSubject().asNode();
+        Node predicate = s.getPredicate().asNode();
+        Node object = s.getObject().asNode();
+        if(predicate.equals(exploits)){
+            Attack state = attack(subject);
+            if(state.exploited.add(object)){evaluate(subject, state);}
+        } else if(predicate.equals(implies)){
+            Attack state = attack(subject);
+            if(!state.implied.contains(object)){
+                state.implied.add(object);
+                link(impliedBy, object, subject);
+                evaluate(subject, state);
+            }
+        } else if(predicate.equals(relatedTo)){
+            Attack state = attack(subject);
+            if(state.pattern == null){
+                state.pattern = object;
+                link(patternAttacks, object, subject);
+                if(state.risk){score(object);}
+            }
+        } else if(predicate.equals(hasSeverity) || predicate.equals(hasLikelihood)){
+            (predicate.equals(hasSeverity) ? severity : likelihood).put(subject, object);
+            score(subject);
+        } else if(predicate.equals(RDF.type.asNode()) && object.equals(consequence)){
+            if(consequences.add(subject) && impliedBy.containsKey(subject)){
+                for(Node a : impliedBy.get(subject)){evaluate(a, attacks.get(a));}
+            }
+        } else if(predicate.equals(RDFS.range.asNode()) && subject.equals(implies) && object.equals(consequence)){
+            if(!consequenceRange){
+                consequenceRange = true;
+                for(Map.Entry<Node, Attack> e : attacks.entrySet()){evaluate(e.getKey(), e.getValue());}
+            }
+        }
+    }
+
+    // A removed triple can change many members: the engine is marked to be built again
+    @Override
+    public synchronized void removedStatement(Statement s){
+        stale = true;
+    }
+
+    @Override
+    public synchronized void notifyEvent(Model m, Object event){
+        if(event == GraphEvents.removeAll){stale = true;}
+    }
+
+    /**
+     * This method returns the ranking in a printable form
+     * @param ranked: ranking given by topRisks
+     * @return: one line for each pattern
+     */
+    public static ArrayList<String> format(List<Ranked> ranked){
+        ArrayList<String> lines = new ArrayList<>();
+        for(Ranked r : ranked){
+            String pattern = r.pattern.getURI();
+            String attack = r.attack.getURI();
+            lines.add(String.format("[%s, %s, %.1f, %d]", pattern.substring(pattern.indexOf('#') + 1),
+                    attack.substring(attack.indexOf('#') + 1), r.score, r.exploits));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * This class runs reasoning jobs at the same time on a bounded pool. The jobs
+ * form a graph of dependencies: a job starts when all the jobs it depends on
+ * have ended, and the independent ones run together, so the whole run lasts
+ * about as its longest chain of jobs. A job that only reads sees the model
+ * under the read lock of the model, the same lock taken by OntoCapecSync and
+ * by the updates of OntoCapecServer (they wait for the job, with no copy),
+ * while a job that changes the model works in a private overlay (see
+ * OntoCapecOverlay) and never touches the model of the others. Each worker
+ * has its own reasoner, since an inference model cannot be read by many
+ * threads. The times of all the jobs are kept for the report.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.shared.Lock;
+
+
+public class OntoCapecScheduler {
+
+    /**
+     * Work of a job: a reasoning task on a model
+     */
+    public interface Work {
+        /**
+         * @param reasoner: reasoner of the worker running the job
+         * @param m: model of the job (shared read-only, or its private overlay)
+         * @return: the result of the task
+         */
+        ArrayList<String> run(OntoCapecReasoner reasoner, OntModel m);
+    }
+
+    /**
+     * Receiver of the jobs as soon as they end (called by the worker)
+     */
+    public interface Listener {
+        void finished(Job job);
+    }
+
+    /**
+     * Job of the graph, with its result and times after the run
+     */
+    public static class Job {
+        final String name;
+        final Work work;
+        final boolean mutating; // True if the job changes its model (private overlay)
+        final List<Job> after;
+
+        // Outcome of the last run
+        ArrayList<String> result = null;
+        Throwable error = null;
+        boolean skipped = false; // A dependency failed
+        long startNanos; // From the start of the run
+        long nanos;
+        String worker;
+
+        Job(String name, Work work, boolean mutating, List<Job> after){
+            this.name = name;
+            this.work = work;
+            this.mutating = mutating;
+            this.after = after;
+        }
+
+        // Getters of the job
+        public String getName() {return name;}
+        public ArrayList<String> getResult() {return result;}
+        public Throwable getError() {return error;}
+        public boolean isSkipped() {return skipped;}
+        public boolean isDone() {return result != null;}
+        public double getMillis() {return nanos / 1e6;}
+        public double getStartMillis() {return startNanos / 1e6;}
+    }
+
+    final OntModel m;
+    final List<Job> jobs = new ArrayList<>();
+
+    // Attributes for customization
+    int threads = Runtime.getRuntime().availableProcessors(); // Workers running the jobs
+
+    // A reasoner for each worker (the inference models cannot be read by many threads)
+    final OntoCapecReasoner.PerThread reasoners = OntoCapecReasoner.perThread();
+
+    long runNanos = 0; // Duration of the last run
+
+    /**
+     * @param m: model on which the jobs reason
+     */
+    public OntoCapecScheduler(OntModel m){
+        this.m = m;
+    }
+
+    // Setter of the customization
+    public void setThreads(int threads) {this.threads = threads;}
+
+    // Getters of the scheduler
+    public List<Job> getJobs() {return jobs;}
+    public double getRunMillis() {return runNanos / 1e6;}
+
+    /**
+     * This method adds a job that only reads the model
+     * @param name: name of the job (also the phase of its metrics)
+     * @param work: task of the job
+     * @param after: jobs that must end before it starts (already added)
+     * @return: the job
+     */
+    public synchronized Job add(String name, Work work, Job... after){
+        return add(name, work, false, after);
+    }
+
+    /**
+     * This method adds a job that changes its model: it works on a private
+     * overlay of the model, dropped at the end
+     * @param name: name of the job (also the phase of its metrics)
+     * @param work: task of the job
+     * @param after: jobs that must end before it starts (already added)
+     * @return: the job
+     */
+    public synchronized Job addMutating(String name, Work work, Job... after){
+        return add(name, work, true, after);
+    }
+
+    // The dependencies are jobs already added, so the graph has no cycles
+    private Job add(String name, Work work, boolean mutating, Job... after){
+        List<Job> dependencies = new ArrayList<>();
+        for(Job job : after){
+            if(!jobs.contains(job)){throw new IllegalArgumentException("The job " + job.name + " is not in the scheduler");}
+            dependencies.add(job);
+        }
+        Job job = new Job(name, work, mutating, dependencies);
+        jobs.add(job);
+        return job;
+    }
+
+    /**
+     * This method runs all the jobs and waits for them: each one starts as
+     * soon as its dependencies end. A job whose dependency failed is skipped.
+     * @param listener: receiver of each job when it ends (null for none)
+     * @return: the number of jobs failed or skipped
+     */
+    public synchronized int run(final Listener listener){
+        final long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            for(final Job job : jobs){
+                job.result = null;
+                job.error = null;
+                job.skipped = false;
+                job.startNanos = job.nanos = 0;
+                job.worker = null;
+                // Jobs are in order of addition, so the futures of the dependencies already exist
+                CompletableFuture<?>[] dependencies = new CompletableFuture<?>[job.after.size()];
+                for(int i=0; i<dependencies.length; i++){dependencies[i] = futures.get(jobs.indexOf(job.after.get(i)));}
+                CompletableFuture<Void> future = CompletableFuture.allOf(dependencies).handleAsync((ok, failure) -> {
+                    if(failure != null){job.skipped = true;}
+                    else{execute(job, start);}
+                    if(listener != null){listener.finished(job);}
+                    if(job.result == null){throw new CompletionException(job.error);}
+                    return null;
+                }, pool);
+                futures.add(future);
+            }
+            for(CompletableFuture<Void> future : futures){
+                try {future.join();}
+                catch (CompletionException ex) {} // Reported by the job
+            }
+        } finally {
+            pool.shutdown();
+            reasoners.clear();
+        }
+        runNanos = System.nanoTime() - start;
+        int failed = 0;
+        for(Job job : jobs){
+            if(!job.isDone()){failed++;}
+        }
+        return failed;
+    }
+
+    // Runs a job on its model with the reasoner of the worker
+    void execute(Job job, long start){
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        job.startNanos = System.nanoTime() - start;
+        job.worker = Thread.currentThread().getName();
+        try {
+            if(job.mutating){
+                // The overlay only reads the model: its changes stay in the delta
+                OntoCapecOverlay overlay = new OntoCapecOverlay(m);
+                m.enterCriticalSection(Lock.READ);
+                try {job.result = job.work.run(reasoners.get(), overlay.getModel());}
+                finally {m.leaveCriticalSection();}
+            } else{
+                m.enterCriticalSection(Lock.READ);
+                try {job.result = job.work.run(reasoners.get(), m);}
+                finally {m.leaveCriticalSection();}
+            }
+        } catch (RuntimeException ex) {
+            job.error = ex;
+        }
+        job.nanos = metrics.stop(job.name, sample);
+    }
+
+    /**
+     * This method returns the times of the jobs of the last run
+     * @return: one line for each job, then the run against the sum of the jobs
+     */
+    public synchronized String report(){
+        StringBuilder sb = new StringBuilder();
+        long sum = 0;
+        for(Job job : jobs){
+            String status = job.isDone() ? "done" : job.skipped ? "skipped" : "failed: " + job.error;
+            sb.append(String.format("%-20s start %8.1f ms, %8.1f ms on %s (%s)%n", job.name,
+                    job.getStartMillis(), job.getMillis(), job.worker == null ? "-" : job.worker, status));
+            sum += job.nanos;
+        }
+        sb.append(String.format("%d jobs in %.1f ms (%.1f ms one after another)%n", jobs.size(), runNanos / 1e6, sum / 1e6));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * This class exposes the model over a local HTTP SPARQL endpoint, so that many
+ * clients can query it at the same time:
+ *      GET/POST /sparql   query (parameter "query" or body application/sparql-query)
+ *      POST     /update   SPARQL update (parameter "update" or body application/sparql-update)
+ *      GET      /stats    requests served and latency percentiles (JSON)
+ * Queries run in parallel under the read lock of the model, updates alone under
+ * its write lock, so a query never sees an update (or a batch of rows) half done.
+ * Queries are evaluated on the base model: the inference graphs of the rule
+ * reasoners are not safe for concurrent reads.
+ */
+package ontoapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.shared.Lock;
+import org.apache.jena.update.UpdateAction;
+
+
+public class OntoCapecServer {
+
+    // Attributes for customization
+    int port = 3030;
+    int threads = 8; // Threads serving the requests (Java 8: a bounded pool instead of virtual threads)
+    int queueCapacity = 24; // Requests waiting for a thread, beyond them 429 (admitted: threads + queue)
+    long timeoutMillis = 10000; // Maximum time of a query (then 503)
+    int latencySamples = 10000; // Latencies kept for the percentiles
+
+    final Model base;
+    final Lock lock; // Lock of the model, shared with OntoCapecSync and OntoCapecScheduler
+    final OntoCapecReasoner reasoner;
+    final LatencyStats stats;
+
+    HttpServer server = null;
+    ThreadPoolExecutor executor = null;
+
+    // True on the thread answering a request rejected by the full pool
+    static final ThreadLocal<Boolean> rejected = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Latencies of the last requests and counters of the outcomes
+     */
+    static class LatencyStats {
+        final long[] samples; // Circular buffer of latencies (microseconds)
+        long count = 0;
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        LatencyStats(int size){
+            samples = new long[size];
+        }
+
+        synchronized void record(long micros){
+            samples[(int) (count % samples.length)] = micros;
+            count++;
+        }
+
+        /**
+         * @return: the statistics in JSON format
+         */
+        String toJson(){
+            long[] sorted;
+            long served;
+            synchronized(this){
+                served = count;
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            }
+            Arrays.sort(sorted);
+            return "{\"served\": " + served
+                    + ", \"rejected\": " + rejected.get()
+                    + ", \"timeouts\": " + timeouts.get()
+                    + ", \"errors\": " + errors.get()
+                    + ", \"p50_ms\": " + percentile(sorted, 0.50)
+                    + ", \"p99_ms\": " + percentile(sorted, 0.99)
+                    + ", \"max_ms\": " + percentile(sorted, 1.0) + "}";
+        }
+
+        static double percentile(long[] sorted, double p){
+            if(sorted.length == 0){return 0;}
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, i)] / 1000.0;
+        }
+    }
+
+    /**
+     * @param model: model to expose (its base model is queried and updated
+     * under the lock of the model)
+     * @param reasoner: reasoner whose prefixes and compiled queries are reused
+     */
+    public OntoCapecServer(OntModel model, OntoCapecReasoner reasoner){
+        // One wrapper of the base model and the lock of the model itself: each call of
+        // getBaseModel() returns a new wrapper, with a lock of its own
+        this.base = model.getBaseModel();
+        this.lock = model.getLock();
+        this.reasoner = reasoner;
+        this.stats = new LatencyStats(latencySamples);
+    }
+
+    // Setter of the port (0 for any free port)
+    public void setPort(int port) {this.port = port;}
+
+    // Getters of the server
+    public int getPort() {return server == null ? port : server.getAddress().getPort();}
+    public String getStats() {return stats.toJson();}
+
+    /**
+     * This method starts the server on the loopback interface
+     * @throws IOException if the port cannot be opened
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final AtomicInteger threadCounter = new AtomicInteger();
+        // Admission before queueing: a request beyond the threads and the bounded
+        // queue is answered 429 at once (status only), on the thread of the server
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "capec-http-" + threadCounter.incrementAndGet()),
+                (r, pool) -> {
+                    rejected.set(true);
+                    try {r.run();}
+                    finally {rejected.set(false);}
+                });
+        server.setExecutor(executor);
+        server.createContext("/sparql", new Endpoint(false));
+        server.createContext("/update", new Endpoint(true));
+        server.createContext("/stats", exchange -> send(exchange, 200, "application/json", getStats()));
+        server.start();
+        System.out.println("SPARQL endpoint listening on http://localhost:" + getPort() + "/sparql");
+    }
+
+    /**
+     * This method stops the server, waiting the requests in progress
+     * @param delaySeconds: maximum wait for the requests in progress
+     */
+    public void stop(int delaySeconds){
+        if(server == null){return;}
+        server.stop(delaySeconds);
+        executor.shutdown();
+        server = null;
+    }
+
+    /**
+     * This method changes the model with exclusive access: the queries see it
+     * before or after the change, never during it
+     * @param triples: triples to add (e.g. rows inserted in a separate graph)
+     */
+    public void addAtomically(Graph triples){
+        lock.enterCriticalSection(Lock.WRITE);
+        try {
+            base.add(ModelFactory.createModelForGraph(triples));
+        } finally {
+            lock.leaveCriticalSection();
+        }
+    }
+
+    /**
+     * Handler of the queries (or of the updates)
+     */
+    class Endpoint implements HttpHandler {
+        final boolean update;
+
+        Endpoint(boolean update){
+            this.update = update;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            try {
+                if(rejected.get()){
+                    // On the thread of the server: only the status line and the headers,
+                    // so a slow client cannot hold it while it accepts the others
+                    stats.rejected.incrementAndGet();
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    exchange.sendResponseHeaders(429, -1);
+                    return;
+                }
+                String text = readRequest(exchange, update ? "update" : "query");
+                if(text == null){
+                    send(exchange, 400, "text/plain", "Missing parameter " + (update ? "update" : "query"));
+                    return;
+                }
+                if(update && !"POST".equals(exchange.getRequestMethod())){
+                    send(exchange, 405, "text/plain", "Updates need POST");
+                    return;
+                }
+                if(update){executeUpdate(exchange, text);}
+                else{executeQuery(exchange, text);}
+                stats.record((System.nanoTime() - start) / 1000);
+            } catch (QueryCancelledException ex) {
+                stats.timeouts.incrementAndGet();
+                send(exchange, 503, "text/plain", "Query timed out after " + timeoutMillis + " ms");
+            } catch (QueryParseException ex) {
+                stats.errors.incrementAndGet();
+                send(exchange, 400, "text/plain", ex.getMessage());
+            } catch (RuntimeException ex) {
+                stats.errors.incrementAndGet();
+                Logger.getLogger(OntoCapecServer.class.getName()).log(Level.SEVERE, null, ex);
+                send(exchange, 500, "text/plain", String.valueOf(ex.getMessage()));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * This method runs a query under the read lock, serializing the results
+     * while the lock is held (they are read from the model meanwhile)
+     * @param exchange: the request
+     * @param text: text of the query (the prefixes of the reasoner are added)
+     * @throws IOException if the response cannot be written
+     */
+    void executeQuery(HttpExchange exchange, String text) throws IOException {
+        Query query = reasoner.queryCache.get(text).getQuery();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String contentType;
+        lock.enterCriticalSection(Lock.READ);
+        try {
+            QueryExecution qexec = QueryExecutionFactory.create(query, base);
+            try {
+                qexec.setTimeout(timeoutMillis);
+                if(query.isSelectType()){
+                    contentType = "application/sparql-results+json";
+                    ResultSetFormatter.outputAsJSON(body, qexec.execSelect());
+                } else if(query.isAskType()){
+                    contentType = "application/sparql-results+json";
+                    ResultSetFormatter.outputAsJSON(body, qexec.execAsk());
+                } else if(query.isConstructType()){
+                    contentType = "text/turtle";
+                    RDFDataMgr.write(body, qexec.execConstruct(), Lang.TURTLE);
+                } else{
+                    contentType = "text/turtle";
+                    RDFDataMgr.write(body, qexec.execDescribe(), Lang.TURTLE);
+                }
+            } finally {
+                qexec.close();
+            }
+        } finally {
+            lock.leaveCriticalSection();
+        }
+        send(exchange, 200, contentType, body.toByteArray());
+    }
+
+    /**
+     * This method applies an update alone (write lock): no query runs meanwhile
+     * @param exchange: the request
+     * @param text: text of the update (the prefixes of the reasoner are added)
+     * @throws IOException if the response cannot be written
+     */
+    void executeUpdate(HttpExchange exchange, String text) throws IOException {
+        lock.enterCriticalSection(Lock.WRITE);
+        try {
+            UpdateAction.parseExecute(reasoner.prefix + "\n" + text, base);
+        } finally {
+            lock.leaveCriticalSection();
+        }
+        send(exchange, 204, null, new byte[0]);
+    }
+
+    /**
+     * This method reads the query of a request, from the URL (GET), from a form
+     * or from the body (POST)
+     * @param exchange: the request
+     * @param name: name of the parameter (query or update)
+     * @return: the text, or null if it is missing
+     * @throws IOException if the body cannot be read
+     */
+    static String readRequest(HttpExchange exchange, String name) throws IOException {
+        Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+        if("POST".equals(exchange.getRequestMethod())){
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            String body = readBody(exchange.getRequestBody());
+            if(type != null && type.startsWith("application/x-www-form-urlencoded")){
+                params.putAll(parseParams(body));
+            } else if(!body.isEmpty()){
+                return body;
+            }
+        }
+        return params.get(name);
+    }
+
+    static Map<String, String> parseParams(String raw) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if(raw == null || raw.isEmpty()){return params;}
+        for(String param : raw.split("&")){
+            int eq = param.indexOf('=');
+            if(eq < 0){continue;}
+            params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for(int n = in.read(buffer); n >= 0; n = in.read(buffer)){body.write(buffer, 0, n);}
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        if(contentType != null){exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");}
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if(body.length > 0){
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * This class keeps a binary snapshot (RDF Thrift) of the model built from the
+ * CAPEC dataset. The snapshot is keyed on a hash of the dataset and of the code
+ * that builds the model, so it is loaded instead of building the model again
+ * until one of them changes. The materialized closure of the model (see
+ * OntoCapecClosure) can be saved next to the snapshot, keyed also on the code
+ * of the closure (its rules).
+ */
+package ontoapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+
+public class OntoCapecSnapshot {
+
+    // Constant attributes
+    final String snapshotDir = "src\\dataset\\";
+    final String snapshotPrefix = "capecOntology-";
+    final String snapshotExt = ".trdf";
+    final String closureExt = ".closure.trdf";
+
+    // Classes whose code builds the model (part of the key)
+    final Class<?>[] builders = {OntoCapecModel.class, CapecRowMapper.class, CapecCsvReader.class};
+
+    // Classes whose code computes the closure (part of the key of the closure)
+    final Class<?>[] closureBuilders = {OntoCapecModel.class, CapecRowMapper.class, CapecCsvReader.class, OntoCapecClosure.class};
+
+    final OntoCapecModel onto;
+
+    // Timings of the last call of open() in milliseconds (-1 if not done)
+    long coldStartMillis = -1;
+    long warmStartMillis = -1;
+
+    // Graph returned by the last call of open() and its version at that time
+    Graph opened = null;
+    long openedVersion = -1;
+
+    public OntoCapecSnapshot(OntoCapecModel onto){
+        this.onto = onto;
+    }
+
+    // Getters of the timings
+    public long getColdStartMillis() {return coldStartMillis;}
+    public long getWarmStartMillis() {return warmStartMillis;}
+
+    /**
+     * This method returns the model: it loads the snapshot if it exists for the
+     * current dataset and code, otherwise it creates the model (writing the owl
+     * file) and saves its snapshot.
+     * @return: the model of the ontology
+     */
+    public OntModel open(){
+        coldStartMillis = -1;
+        warmStartMillis = -1;
+        long start = System.nanoTime();
+        File snapshot = getSnapshotFile();
+
+        // Warm start: load the existing snapshot
+        if(snapshot != null && snapshot.isFile()){
+            try {
+                OntModel m = load(snapshot);
+                warmStartMillis = (System.nanoTime() - start) / 1000000;
+                System.out.println("Warm start: snapshot " + snapshot.getName() + " loaded in " + warmStartMillis + " ms");
+                opened(m);
+                return m;
+            } catch (RuntimeException ex) {
+                Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.WARNING, "Invalid snapshot, it will be rebuilt", ex);
+                snapshot.delete();
+            }
+        }
+
+        // Cold start: build the model and save it
+        OntModel m = onto.createModel();
+        if(snapshot != null){
+            try {save(m, snapshot);}
+            catch (IOException ex) {Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.SEVERE, null, ex);}
+        }
+        coldStartMillis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Cold start: model built and saved in " + coldStartMillis + " ms");
+        opened(m);
+        return m;
+    }
+
+    private void opened(OntModel m){
+        opened = m.getBaseModel().getGraph();
+        openedVersion = OntoCapecVersion.of(opened).getVersion();
+    }
+
+    /**
+     * This method returns the materialized closure of the model returned by
+     * open(): it is loaded from the file next to the snapshot if it exists,
+     * otherwise it is computed and saved. If the model has changed since
+     * open(), the closure is computed and not saved.
+     * @param m: model returned by open()
+     * @return: the closure of the model
+     */
+    public OntoCapecClosure openClosure(OntModel m){
+        Graph base = m.getBaseModel().getGraph();
+        File file = getClosureFile();
+        if(file == null || base != opened || OntoCapecVersion.of(base).getVersion() != openedVersion){
+            return OntoCapecClosure.of(m.getBaseModel());
+        }
+        if(file.isFile()){
+            try {
+                Graph saved = GraphFactory.createGraphMem();
+                RDFDataMgr.read(saved, file.getPath(), Lang.RDFTHRIFT);
+                return OntoCapecClosure.of(m.getBaseModel(), saved);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.WARNING, "Invalid closure, it will be computed", ex);
+                file.delete();
+            }
+        }
+        OntoCapecClosure closure = OntoCapecClosure.of(m.getBaseModel());
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            new OntoCapecWriter(OntoCapecWriter.Format.RDF_THRIFT, false).write(closure.getGraph(), tmp.getPath());
+            // Remove the closures of other rules
+            String prefix = new File(snapshotDir + snapshotPrefix).getName();
+            File[] old = file.getAbsoluteFile().getParentFile().listFiles();
+            if(old != null){
+                for(File f : old){
+                    String name = f.getName();
+                    if(name.startsWith(prefix) && name.endsWith(closureExt)){f.delete();}
+                }
+            }
+            if(!tmp.renameTo(file)){throw new IOException("Cannot rename " + tmp + " to " + file);}
+        } catch (IOException ex) {
+            Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return closure;
+    }
+
+    /**
+     * This method loads a snapshot in a new ontology model
+     * @param snapshot: file of the snapshot
+     * @return: the model with the triples of the snapshot
+     */
+    public OntModel load(File snapshot){
+        OntModel m = onto.createEmptyModel();
+        RDFDataMgr.read(m.getBaseModel(), snapshot.getPath(), Lang.RDFTHRIFT);
+        m.rebind();
+        return m;
+    }
+
+    /**
+     * This method saves the base triples of the model in a snapshot, removing
+     * the snapshots of previous versions
+     * @param m: model to save
+     * @param snapshot: file of the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    public void save(OntModel m, File snapshot) throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        new OntoCapecWriter(OntoCapecWriter.Format.RDF_THRIFT, false).write(m.getBaseModel().getGraph(), tmp.getPath());
+
+        // Replace the old snapshots (and their closures) only when the new one is complete
+        String prefix = new File(snapshotDir + snapshotPrefix).getName();
+        File[] old = snapshot.getAbsoluteFile().getParentFile().listFiles();
+        if(old != null){
+            for(File f : old){
+                String name = f.getName();
+                if(name.startsWith(prefix) && name.endsWith(snapshotExt)){f.delete();}
+            }
+        }
+        if(!tmp.renameTo(snapshot)){
+            throw new IOException("Cannot rename " + tmp + " to " + snapshot);
+        }
+    }
+
+    /**
+     * This method returns the file of the snapshot for the current dataset,
+     * code and customization of the model
+     * @return: the file (it can not exist) or null if the key cannot be computed
+     */
+    public File getSnapshotFile(){
+        try {
+            return new File(snapshotDir + snapshotPrefix + computeKey(builders) + snapshotExt);
+        } catch (IOException ex) {
+            Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * This method returns the file of the closure for the current snapshot and
+     * rules of the closure (a closure of other rules is never loaded)
+     * @return: the file (it can not exist) or null if the key cannot be computed
+     */
+    public File getClosureFile(){
+        try {
+            return new File(snapshotDir + snapshotPrefix + computeKey(closureBuilders) + closureExt);
+        } catch (IOException ex) {
+            Logger.getLogger(OntoCapecSnapshot.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * This method computes the key of the snapshot: hash of the dataset, of the
+     * classes that build the model and of the customization attributes
+     * @return: the key as hexadecimal string
+     * @throws IOException if the dataset or a class file cannot be read
+     */
+    public String computeKey() throws IOException {
+        return computeKey(builders);
+    }
+
+    /**
+     * @param classes: classes whose code is part of the key
+     * @return: the key as hexadecimal string
+     * @throws IOException if the dataset or a class file cannot be read
+     */
+    String computeKey(Class<?>[] classes) throws IOException {
+        MessageDigest digest;
+        try {digest = MessageDigest.getInstance("SHA-256");}
+        catch (NoSuchAlgorithmException ex) {throw new IOException(ex);}
+
+        update(digest, new FileInputStream(onto.datasetPath));
+        for(Class<?> c : classes){
+            InputStream code = c.getResourceAsStream(c.getSimpleName() + ".class");
+            if(code == null){throw new IOException("Code of " + c.getName() + " not found");}
+            update(digest, code);
+        }
+        String config = onto.myns + "|" + onto.numRows + "|" + onto.disjointness;
+        digest.update(config.getBytes(StandardCharsets.UTF_8));
+
+        // The first 16 bytes are enough to tell the versions apart
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder();
+        for(int i=0; i<16; i++){key.append(String.format("%02x", hash[i]));}
+        return key.toString();
+    }
+
+    private void update(MessageDigest digest, InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while((n = in.read(buffer)) > 0){digest.update(buffer, 0, n);}
+        } finally {
+            in.close();
+        }
+    }
+}
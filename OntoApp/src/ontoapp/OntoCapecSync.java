@@ -0,0 +1,262 @@
+/**
+ * This class keeps a model in sync with new releases of the CAPEC dataset
+ * without building it again. Each row is identified by its CAPEC ID and has a
+ * hash of its content: only the rows added, changed or removed since the last
+ * release are mapped, and only their triples are added to or removed from the
+ * model. The triples shared by many rows (as the individual of a severity)
+ * are counted, so a triple is removed only when no row produces it anymore.
+ * Each update returns a report of what changed.
+ */
+package ontoapp;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.shared.Lock;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+
+public class OntoCapecSync {
+
+    /**
+     * Row of the last release: hash of its content and its triples
+     */
+    static class RowState {
+        final byte[] hash;
+        final Triple[] triples;
+
+        RowState(byte[] hash, Triple[] triples){
+            this.hash = hash;
+            this.triples = triples;
+        }
+    }
+
+    /**
+     * Changes made by an update
+     */
+    public static class Report {
+        final List<String> added = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        int unchanged = 0;
+        int baselined = 0; // New rows whose triples were all in the model already
+        long triplesAdded = 0;
+        long triplesRemoved = 0;
+        long nanos = 0;
+
+        // Getters of the report (CAPEC IDs of the rows)
+        public List<String> getAdded() {return added;}
+        public List<String> getChanged() {return changed;}
+        public List<String> getRemoved() {return removed;}
+        public int getUnchanged() {return unchanged;}
+        public int getBaselined() {return baselined;}
+        public long getTriplesAdded() {return triplesAdded;}
+        public long getTriplesRemoved() {return triplesRemoved;}
+        public double getMillis() {return nanos / 1e6;}
+        public boolean isEmpty() {return added.isEmpty() && changed.isEmpty() && removed.isEmpty();}
+
+        @Override
+        public String toString(){
+            return String.format("%d rows added %s, %d changed %s, %d removed %s, %d unchanged, %d already in the model: "
+                    + "+%d -%d triples in %.1f ms", added.size(), added, changed.size(), changed,
+                    removed.size(), removed, unchanged, baselined, triplesAdded, triplesRemoved, getMillis());
+        }
+    }
+
+    final OntoCapecModel onto;
+    final OntModel m;
+
+    // Rows of the last release by CAPEC ID (in order of the dataset)
+    Map<String, RowState> rows = new LinkedHashMap<>();
+
+    // Number of rows that produce each triple
+    final HashMap<Triple, Integer> references = new HashMap<>();
+
+    /**
+     * @param onto: customization of the model (numRows limits the rows read)
+     * @param m: model to keep in sync (with the T-Box of OntoCapecModel)
+     */
+    public OntoCapecSync(OntoCapecModel onto, OntModel m){
+        this.onto = onto;
+        this.m = m;
+    }
+
+    // Getters of the state
+    public OntModel getModel() {return m;}
+    public synchronized int size() {return rows.size();}
+
+    /**
+     * This method brings the model to a release of the dataset. The first call
+     * reads all the rows (the model can already have them, if it was built from
+     * the same release: those rows are counted as already in the model, not
+     * added); the next ones change only the rows that differ.
+     * @param source: rows in CAPEC format, with header (closed at the end)
+     * @return: the report of the changes
+     * @throws IOException if the dataset cannot be read
+     */
+    public synchronized Report update(Reader source) throws IOException {
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        Report report = new Report();
+        Map<String, RowState> next = new LinkedHashMap<>();
+        HashMap<Triple, Integer> delta = new HashMap<>();
+        List<String> fresh = new ArrayList<>(); // Rows with no previous state
+        CapecRowMapper mapper = new CapecRowMapper(onto);
+        MessageDigest digest = newDigest();
+
+        CapecCsvReader csv = new CapecCsvReader(source);
+        try {
+            csv.nextRow(); // skip the first line (header)
+            int counter = 0;
+            while(counter != onto.numRows && csv.nextRow()){
+                counter++;
+                CharSequence[] data = csv.getColumns();
+                String id = data[0].toString();
+                if(next.containsKey(id)){continue;} // Only the first row with an ID
+                byte[] hash = hash(digest, data);
+                RowState old = rows.get(id);
+                if(old != null && Arrays.equals(old.hash, hash)){
+                    // Same content: nothing to map
+                    next.put(id, old);
+                    report.unchanged++;
+                    continue;
+                }
+                RowState row = new RowState(hash, map(mapper, data));
+                next.put(id, row);
+                count(delta, row.triples, 1);
+                if(old == null){fresh.add(id);}
+                else{
+                    count(delta, old.triples, -1);
+                    report.changed.add(id);
+                }
+            }
+        } finally {
+            csv.close();
+        }
+        for(Map.Entry<String, RowState> e : rows.entrySet()){
+            if(!next.containsKey(e.getKey())){
+                count(delta, e.getValue().triples, -1);
+                report.removed.add(e.getKey());
+            }
+        }
+
+        apply(delta, fresh, next, report);
+        rows = next;
+        report.nanos = metrics.stop("sync", sample);
+        metrics.increment("sync.rowsChanged", report.added.size() + report.changed.size() + report.removed.size());
+        return report;
+    }
+
+    /**
+     * This method brings the model to the release in a file
+     * @param csvPath: path of the dataset in CAPEC format
+     * @return: the report of the changes
+     * @throws IOException if the dataset cannot be read
+     */
+    public Report update(String csvPath) throws IOException {
+        return update(new FileReader(csvPath));
+    }
+
+    // Triples of a row, without duplicates
+    Triple[] map(CapecRowMapper mapper, CharSequence[] data){
+        Graph g = GraphFactory.createGraphMem();
+        mapper.addRow(g, data);
+        List<Triple> triples = g.find().toList();
+        return triples.toArray(new Triple[triples.size()]);
+    }
+
+    // Adds sign to the count of each triple in delta
+    static void count(HashMap<Triple, Integer> delta, Triple[] triples, int sign){
+        for(Triple t : triples){delta.merge(t, sign, Integer::sum);}
+    }
+
+    /**
+     * This method changes the references of the triples and the model: a
+     * triple is added when its first row appears and removed when its last
+     * row goes away
+     * @param delta: change of the references of each triple
+     * @param fresh: CAPEC IDs of the rows with no previous state
+     * @param next: rows of the release
+     * @param report: report in which to count the rows and the triples
+     */
+    void apply(HashMap<Triple, Integer> delta, List<String> fresh, Map<String, RowState> next, Report report){
+        List<Triple> additions = new ArrayList<>();
+        List<Triple> deletions = new ArrayList<>();
+        for(Map.Entry<Triple, Integer> e : delta.entrySet()){
+            if(e.getValue() == 0){continue;}
+            Integer before = references.get(e.getKey());
+            int after = (before == null ? 0 : before) + e.getValue();
+            if(after > 0){references.put(e.getKey(), after);}
+            else{references.remove(e.getKey());}
+            if(before == null && after > 0){additions.add(e.getKey());}
+            else if(before != null && after <= 0){deletions.add(e.getKey());}
+        }
+
+        // Lock of the model, the same taken by OntoCapecServer and OntoCapecScheduler:
+        // they see the release before or after
+        Graph base = m.getBaseModel().getGraph();
+        m.enterCriticalSection(Lock.WRITE);
+        try {
+            for(String id : fresh){
+                if(containsAll(base, next.get(id).triples)){report.baselined++;}
+                else{report.added.add(id);}
+            }
+            additions.removeIf(base::contains); // Already in the model built from the same release
+            GraphUtil.delete(base, deletions);
+            GraphUtil.add(base, additions);
+            m.rebind();
+        } finally {
+            m.leaveCriticalSection();
+        }
+        report.triplesAdded = additions.size();
+        report.triplesRemoved = deletions.size();
+    }
+
+    static boolean containsAll(Graph g, Triple[] triples){
+        for(Triple t : triples){
+            if(!g.contains(t)){return false;}
+        }
+        return true;
+    }
+
+    static MessageDigest newDigest(){
+        try {return MessageDigest.getInstance("SHA-256");}
+        catch (NoSuchAlgorithmException ex) {throw new IllegalStateException(ex);}
+    }
+
+    // Hash of the content of a row
+    static byte[] hash(MessageDigest digest, CharSequence[] data){
+        for(CharSequence column : data){
+            digest.update(column.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.err.println("Usage: OntoCapecSync old-release.csv new-release.csv");
+            System.exit(2);
+        }
+        OntoCapecModel onto = new OntoCapecModel();
+        onto.numRows = -1;
+        OntModel m = onto.buildModel(args[0]);
+        OntoCapecSync sync = new OntoCapecSync(onto, m);
+        System.out.println("Release " + args[0] + ": " + sync.update(args[0]));
+        System.out.println("Release " + args[1] + ": " + sync.update(args[1]));
+    }
+}
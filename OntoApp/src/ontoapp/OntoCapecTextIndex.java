@@ -0,0 +1,392 @@
+/**
+ * This class is an inverted index of the text of the attack patterns: Name,
+ * Description, Execution Flow, Prerequisites, Consequences and Mitigations. It
+ * is filled while the rows are read, or from the model when it has changed
+ * since (the Description is its hasDescription literal), and each term keeps
+ * the list of its patterns compressed as gaps between ids and frequencies in
+ * variable-length bytes. The search ranks the patterns with BM25 and accepts
+ * prefixes (term*) and typos (term~); the hits are the individuals of the
+ * patterns, usable in the queries on the model.
+ */
+package ontoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+
+
+public class OntoCapecTextIndex {
+
+    // Index of each model (built during the ingestion or from the model)
+    static final OntoCapecRegistry<OntoCapecTextIndex> indexes = new OntoCapecRegistry<>(true);
+
+    // Columns of CAPEC indexed
+    static final int[] columns = {1, 4, 9, 10, 14, 15};
+    static final int nameColumn = 1;
+
+    // Words not indexed (common words, markers of the structured cells and empty cells)
+    static final HashSet<String> stopWords = new HashSet<>(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "for", "from", "in", "is", "it",
+            "its", "of", "on", "or", "that", "the", "this", "to", "with", "null",
+            "step", "phase", "description", "technique", "scope"));
+
+    /**
+     * Pattern found by a search
+     */
+    public static class Hit {
+        final Node pattern;
+        final double score;
+
+        Hit(Node pattern, double score){
+            this.pattern = pattern;
+            this.score = score;
+        }
+
+        public Node getPattern() {return pattern;}
+        public double getScore() {return score;}
+    }
+
+    /**
+     * Patterns of a term: gaps of the ids and frequencies, as variable-length integers
+     */
+    static class Postings {
+        byte[] data = new byte[8];
+        int length = 0;
+        int lastDoc = -1;
+        int docFreq = 0;
+
+        void add(int doc, int tf){
+            writeVarint(doc - lastDoc);
+            writeVarint(tf);
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        void writeVarint(int value){
+            if(length + 5 > data.length){data = Arrays.copyOf(data, data.length * 2);}
+            while((value & ~0x7F) != 0){
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    // Attributes for customization
+    double k1 = 1.2; // Saturation of the term frequency (BM25)
+    double b = 0.75; // Normalization by the length of the pattern (BM25)
+    int nameBoost = 2; // Each word of the name counts as many times
+    double fuzzyWeight = 0.5; // Weight of the terms matched with typos
+
+    final String myns;
+
+    // Patterns (documents) and their lengths in words
+    final ArrayList<Node> patterns = new ArrayList<>();
+    int[] lengths = new int[64];
+    long totalLength = 0;
+
+    // Dictionary of the terms, terms in order (for prefixes) and by length (for typos)
+    final HashMap<String, Postings> terms = new HashMap<>();
+    String[] sortedTerms = null; // Built at the first search after new terms
+    String[][] termsByLength = null;
+    long[][] masksByLength = null; // Characters of each term (see mask)
+
+    long version = -1; // Version of the model (see OntoCapecVersion) indexed
+
+    public OntoCapecTextIndex(){
+        this.myns = new OntoCapecModel().getMynsUri();
+    }
+
+    /**
+     * This method returns the index of a model: the one filled during the
+     * ingestion if the model has not changed since, otherwise a new one built
+     * from the names of the individuals and the descriptions
+     * @param m: model with the individuals of CAPEC (base model, without inference)
+     * @return: the index (shared)
+     */
+    public static OntoCapecTextIndex of(Model m){
+        long version = OntoCapecVersion.of(m.getGraph()).getVersion();
+        return indexes.get(m.getGraph(), () -> {
+            OntoCapecTextIndex index = new OntoCapecTextIndex();
+            index.addModel(m.getGraph());
+            index.version = version;
+            return index;
+        }, index -> index.version == version);
+    }
+
+    /**
+     * This method associates an index to the current version of a model
+     * @param m: model indexed (base model)
+     * @param index: index of its rows
+     */
+    public static void register(Model m, OntoCapecTextIndex index){
+        index.version = OntoCapecVersion.of(m.getGraph()).getVersion();
+        indexes.put(m.getGraph(), index);
+    }
+
+    // Getters of the index
+    public synchronized int size() {return patterns.size();}
+    public synchronized int getTerms() {return terms.size();}
+
+    /**
+     * This method returns the words of a text, lower case and without the
+     * words not indexed
+     * @param text: text to split
+     * @param words: list to fill (cleared first)
+     * @return: the list filled
+     */
+    static List<String> tokenize(CharSequence text, List<String> words){
+        words.clear();
+        StringBuilder word = new StringBuilder();
+        for(int i=0; i<=text.length(); i++){
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(c)){
+                word.append(Character.toLowerCase(c));
+            } else if(word.length() > 0){
+                String w = word.toString();
+                if(w.length() > 1 && !stopWords.contains(w)){words.add(w);}
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * This method indexes a row of the dataset as the pattern with its ID
+     * @param data: columns of the row (as in CAPEC dataset)
+     */
+    public void addRow(CharSequence[] data){
+        HashMap<String, Integer> tf = new HashMap<>();
+        List<String> words = new ArrayList<>();
+        int length = 0;
+        for(int column : columns){
+            if(column >= data.length){continue;}
+            int weight = column == nameColumn ? nameBoost : 1;
+            for(String w : tokenize(data[column], words)){
+                tf.merge(w, weight, Integer::sum);
+                length += weight;
+            }
+        }
+        addDocument(NodeFactory.createURI(myns + data[0]), tf, length);
+    }
+
+    // Adds a pattern with the frequencies of its terms
+    synchronized void addDocument(Node pattern, Map<String, Integer> tf, int length){
+        int doc = patterns.size();
+        patterns.add(pattern);
+        if(doc == lengths.length){lengths = Arrays.copyOf(lengths, doc * 2);}
+        lengths[doc] = length;
+        totalLength += length;
+        for(Map.Entry<String, Integer> e : tf.entrySet()){
+            Postings p = terms.get(e.getKey());
+            if(p == null){
+                p = new Postings();
+                terms.put(e.getKey(), p);
+                sortedTerms = null;
+            }
+            p.add(doc, e.getValue());
+        }
+    }
+
+    /**
+     * This method indexes the patterns of a model from their description and
+     * the names of the individuals linked to them
+     * @param g: graph of the model
+     */
+    void addModel(Graph g){
+        Node hasName = NodeFactory.createURI(myns + "hasName");
+        Node hasDescription = NodeFactory.createURI(myns + "hasDescription");
+        Node relatedTo = NodeFactory.createURI(myns + "relatedTo");
+        Node[] properties = {NodeFactory.createURI(myns + "executes"), NodeFactory.createURI(myns + "precondition"),
+                NodeFactory.createURI(myns + "implies")};
+        Node reduces = NodeFactory.createURI(myns + "reduces");
+        List<String> words = new ArrayList<>();
+        for(Triple named : g.find(Node.ANY, hasName, Node.ANY).toList()){
+            Node pattern = named.getSubject();
+            HashMap<String, Integer> tf = new HashMap<>();
+            int length = 0;
+            List<Node> texts = new ArrayList<>();
+            texts.add(named.getObject());
+            for(Triple t : g.find(pattern, hasDescription, Node.ANY).toList()){texts.add(t.getObject());}
+            for(Triple related : g.find(Node.ANY, relatedTo, pattern).toList()){
+                Node x = related.getSubject();
+                for(Node p : properties){
+                    for(Triple t : g.find(x, p, Node.ANY).toList()){texts.add(t.getObject());}
+                }
+                for(Triple t : g.find(Node.ANY, reduces, x).toList()){texts.add(t.getSubject());}
+            }
+            for(int i=0; i<texts.size(); i++){
+                int weight = i == 0 ? nameBoost : 1;
+                for(String w : tokenize(textOf(texts.get(i)), words)){
+                    tf.merge(w, weight, Integer::sum);
+                    length += weight;
+                }
+            }
+            addDocument(pattern, tf, length);
+        }
+    }
+
+    // Text of an individual: its name, without the escapes of OntoCapecModel.wellFormedUri (or of a literal)
+    String textOf(Node n){
+        if(n.isLiteral()){return n.getLiteralLexicalForm();}
+        if(!n.isURI()){return "";}
+        String name = n.getURI().substring(n.getURI().indexOf('#') + 1);
+        return name.replace("%23", "#").replace("%25", "%");
+    }
+
+    /**
+     * This method searches the patterns with the words of a query
+     * @param query: words separated by spaces (word* for a prefix, word~ for typos)
+     * @param k: maximum number of patterns
+     * @return: the patterns from the best, with their BM25 score
+     */
+    public synchronized List<Hit> search(String query, int k){
+        int n = patterns.size();
+        if(n == 0 || k <= 0){return new ArrayList<>();}
+        double avgLength = (double) totalLength / n;
+        double[] scores = new double[n];
+        int[] touched = new int[n];
+        int count = 0;
+
+        for(String token : query.trim().split("\\s+")){
+            boolean prefix = token.endsWith("*");
+            boolean fuzzy = token.endsWith("~");
+            List<String> words = tokenize(prefix || fuzzy ? token.substring(0, token.length() - 1) : token, new ArrayList<>());
+            for(String word : words){
+                Map<String, Double> expansions = new HashMap<>();
+                if(prefix){
+                    for(String t : prefixed(word)){expansions.put(t, 1.0);}
+                } else if(fuzzy){
+                    int maxEdits = word.length() <= 5 ? 1 : 2;
+                    dictionary();
+                    long mask = mask(word);
+                    int from = Math.max(0, word.length() - maxEdits);
+                    int to = Math.min(termsByLength.length - 1, word.length() + maxEdits);
+                    for(int len=from; len<=to; len++){
+                        String[] candidates = termsByLength[len];
+                        long[] masks = masksByLength[len];
+                        for(int i=0; i<candidates.length; i++){
+                            // Each character missing from one of the words needs an edit
+                            if(Long.bitCount(mask & ~masks[i]) > maxEdits || Long.bitCount(masks[i] & ~mask) > maxEdits){continue;}
+                            if(distance(word, candidates[i], maxEdits) <= maxEdits){
+                                expansions.put(candidates[i], candidates[i].equals(word) ? 1.0 : fuzzyWeight);
+                            }
+                        }
+                    }
+                } else if(terms.containsKey(word)){
+                    expansions.put(word, 1.0);
+                }
+                for(Map.Entry<String, Double> e : expansions.entrySet()){
+                    Postings p = terms.get(e.getKey());
+                    double idf = Math.log(1 + (n - p.docFreq + 0.5) / (p.docFreq + 0.5));
+                    // Decode the gaps and the frequencies
+                    int doc = -1, pos = 0;
+                    while(pos < p.length){
+                        int gap = 0, shift = 0, tf = 0;
+                        byte x;
+                        do {x = p.data[pos++]; gap |= (x & 0x7F) << shift; shift += 7;} while(x < 0);
+                        shift = 0;
+                        do {x = p.data[pos++]; tf |= (x & 0x7F) << shift; shift += 7;} while(x < 0);
+                        doc += gap;
+                        double norm = tf + k1 * (1 - b + b * lengths[doc] / avgLength);
+                        if(scores[doc] == 0){touched[count++] = doc;}
+                        scores[doc] += e.getValue() * idf * tf * (k1 + 1) / norm;
+                    }
+                }
+            }
+        }
+
+        // Bounded heap with the lowest of the best k on top
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1, Comparator.comparingDouble(d -> scores[d]));
+        for(int i=0; i<count; i++){
+            heap.offer(touched[i]);
+            if(heap.size() > k){heap.poll();}
+        }
+        List<Hit> hits = new ArrayList<>(heap.size());
+        while(!heap.isEmpty()){
+            int doc = heap.poll();
+            hits.add(new Hit(patterns.get(doc), scores[doc]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    // Terms that start with a prefix (binary search in the sorted terms)
+    List<String> prefixed(String prefix){
+        dictionary();
+        List<String> result = new ArrayList<>();
+        int i = Arrays.binarySearch(sortedTerms, prefix);
+        if(i < 0){i = -i - 1;}
+        for(; i<sortedTerms.length && sortedTerms[i].startsWith(prefix); i++){result.add(sortedTerms[i]);}
+        return result;
+    }
+
+    // Sorts the terms and groups them by length, if terms have been added
+    void dictionary(){
+        if(sortedTerms != null){return;}
+        sortedTerms = terms.keySet().toArray(new String[terms.size()]);
+        Arrays.sort(sortedTerms);
+        int[] counts = new int[1];
+        for(String t : sortedTerms){
+            if(t.length() >= counts.length){counts = Arrays.copyOf(counts, t.length() + 1);}
+            counts[t.length()]++;
+        }
+        termsByLength = new String[counts.length][];
+        masksByLength = new long[counts.length][];
+        for(int len=0; len<counts.length; len++){
+            termsByLength[len] = new String[counts[len]];
+            masksByLength[len] = new long[counts[len]];
+            counts[len] = 0;
+        }
+        for(String t : sortedTerms){
+            int len = t.length();
+            termsByLength[len][counts[len]] = t;
+            masksByLength[len][counts[len]++] = mask(t);
+        }
+    }
+
+    // Set of the characters of a word (characters can share a bit: it only finds fewer differences)
+    static long mask(String word){
+        long mask = 0;
+        for(int i=0; i<word.length(); i++){mask |= 1L << (word.charAt(i) & 63);}
+        return mask;
+    }
+
+    /**
+     * This method computes the edit distance of two words, stopping when it
+     * exceeds a limit
+     * @param a: first word
+     * @param b: second word
+     * @param max: limit of the distance
+     * @return: the distance, or max+1 if it is higher than max
+     */
+    static int distance(String a, String b, int max){
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for(int j=0; j<=b.length(); j++){prev[j] = j;}
+        for(int i=1; i<=a.length(); i++){
+            cur[0] = i;
+            int best = cur[0];
+            for(int j=1; j<=b.length(); j++){
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                best = Math.min(best, cur[j]);
+            }
+            if(best > max){return max + 1;}
+            int[] t = prev; prev = cur; cur = t;
+        }
+        return Math.min(prev[b.length()], max + 1);
+    }
+}
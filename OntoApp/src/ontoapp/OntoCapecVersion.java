@@ -0,0 +1,134 @@
+/**
+ * This class counts the changes of a graph, so that everything computed from
+ * it (inference models, indexes, caches) knows when it is out of date. The
+ * changes of the T-Box (classes, properties and axioms) are counted apart,
+ * since they invalidate more than the changes of the individuals.
+ */
+package ontoapp;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+
+public class OntoCapecVersion implements GraphListener {
+
+    // Version of each graph already observed (one listener for each graph), never
+    // released: a new version would count from 0 again and match the old ones cached
+    static final OntoCapecRegistry<OntoCapecVersion> versions = new OntoCapecRegistry<>(false);
+
+    final AtomicLong version = new AtomicLong();
+    final AtomicLong schemaVersion = new AtomicLong();
+
+    /**
+     * This method returns the version of a graph, registering the listener of
+     * its changes the first time
+     * @param g: graph to observe (base graph of the model)
+     * @return: the version of the graph
+     */
+    public static OntoCapecVersion of(Graph g){
+        return versions.get(g, () -> {
+            OntoCapecVersion v = new OntoCapecVersion();
+            g.getEventManager().register(v);
+            return v;
+        });
+    }
+
+    // Getters of the counters
+    public long getVersion() {return version.get();}
+    public long getSchemaVersion() {return schemaVersion.get();}
+
+    /**
+     * This method tells if a triple belongs to the T-Box: axioms of RDFS and OWL
+     * vocabulary, declarations of classes and properties, RDF lists of axioms
+     * @param t: triple to check
+     * @return: true if the triple is part of the schema
+     */
+    public static boolean isSchemaTriple(Triple t){
+        Node p = t.getPredicate();
+        if(p.equals(RDF.Nodes.type)){
+            Node o = t.getObject();
+            return o.isURI() && isSchemaNamespace(o.getNameSpace());
+        }
+        if(p.equals(RDF.Nodes.first) || p.equals(RDF.Nodes.rest)){return true;}
+        return p.isURI() && isSchemaNamespace(p.getNameSpace());
+    }
+
+    private static boolean isSchemaNamespace(String ns){
+        return OWL.NS.equals(ns) || RDFS.getURI().equals(ns);
+    }
+
+    private void changed(Triple t){
+        version.incrementAndGet();
+        if(isSchemaTriple(t)){schemaVersion.incrementAndGet();}
+    }
+
+    private void changed(Iterator<Triple> it){
+        version.incrementAndGet();
+        while(it.hasNext()){
+            if(isSchemaTriple(it.next())){
+                schemaVersion.incrementAndGet();
+                break;
+            }
+        }
+    }
+
+    private void changedGraph(Graph added){
+        ExtendedIterator<Triple> it = added.find();
+        try {changed(it);}
+        finally {it.close();}
+    }
+
+    @Override
+    public void notifyAddTriple(Graph g, Triple t) {changed(t);}
+
+    @Override
+    public void notifyAddArray(Graph g, Triple[] triples) {
+        for(Triple t : triples){changed(t);}
+    }
+
+    @Override
+    public void notifyAddList(Graph g, List<Triple> triples) {changed(triples.iterator());}
+
+    @Override
+    public void notifyAddIterator(Graph g, Iterator<Triple> it) {changed(it);}
+
+    @Override
+    public void notifyAddGraph(Graph g, Graph added) {changedGraph(added);}
+
+    @Override
+    public void notifyDeleteTriple(Graph g, Triple t) {changed(t);}
+
+    @Override
+    public void notifyDeleteList(Graph g, List<Triple> triples) {changed(triples.iterator());}
+
+    @Override
+    public void notifyDeleteArray(Graph g, Triple[] triples) {
+        for(Triple t : triples){changed(t);}
+    }
+
+    @Override
+    public void notifyDeleteIterator(Graph g, Iterator<Triple> it) {changed(it);}
+
+    @Override
+    public void notifyDeleteGraph(Graph g, Graph removed) {changedGraph(removed);}
+
+    @Override
+    public void notifyEvent(Graph source, Object value) {
+        // Removal of all the triples: nothing is known about them, so everything changed
+        if(value == GraphEvents.removeAll){
+            version.incrementAndGet();
+            schemaVersion.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * This class writes the model of the ontology in a file. Besides RDF/XML, it
+ * supports streaming formats (written triple by triple, without analysing the
+ * whole graph first), optional gzip compression and the write on a background
+ * thread over a read-only copy of the model.
+ */
+package ontoapp;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+
+
+public class OntoCapecWriter {
+
+    /**
+     * Formats of the output file
+     */
+    public enum Format {
+        RDF_XML_ABBREV(RDFFormat.RDFXML_ABBREV, ".owl", false), // Not streaming: analyses the whole graph
+        NTRIPLES(RDFFormat.NTRIPLES, ".nt", true),
+        TURTLE_STREAM(RDFFormat.TURTLE_BLOCKS, ".ttl", true),
+        RDF_THRIFT(RDFFormat.RDF_THRIFT, ".trdf", true); // Binary
+
+        final RDFFormat rdfFormat;
+        final String extension;
+        final boolean streaming;
+
+        Format(RDFFormat rdfFormat, String extension, boolean streaming){
+            this.rdfFormat = rdfFormat;
+            this.extension = extension;
+            this.streaming = streaming;
+        }
+
+        public String getExtension() {return extension;}
+    }
+
+    /**
+     * Statistics of a write
+     */
+    public static class WriteStats {
+        final Format format;
+        final String path;
+        final long triples;
+        final long bytes;
+        final long nanos;
+
+        WriteStats(Format format, String path, long triples, long bytes, long nanos){
+            this.format = format;
+            this.path = path;
+            this.triples = triples;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getTriples() {return triples;}
+        public long getBytes() {return bytes;}
+        public double getMillis() {return nanos / 1e6;}
+        public double getTriplesPerSec() {return triples / (nanos / 1e9);}
+        public double getBytesPerSec() {return bytes / (nanos / 1e9);}
+
+        @Override
+        public String toString(){
+            return String.format("%s: %d triples, %d bytes in %.1f ms (%.0f triples/sec, %.0f bytes/sec) -> %s",
+                    format, triples, bytes, getMillis(), getTriplesPerSec(), getBytesPerSec(), path);
+        }
+    }
+
+    // Attributes for customization
+    final Format format;
+    final boolean gzip;
+
+    public OntoCapecWriter(Format format, boolean gzip){
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    /**
+     * This method returns the path of the output file with the extension of the
+     * format (path without extension as input)
+     * @param basePath: path of the file without extension
+     * @return: the path with extension
+     */
+    public String getPath(String basePath){
+        return basePath + format.getExtension() + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * This method writes the graph in the file, in the current thread
+     * @param g: graph to write
+     * @param path: file to write
+     * @return: the statistics of the write
+     * @throws IOException if the file cannot be written
+     */
+    public WriteStats write(Graph g, String path) throws IOException {
+        OntoCapecMetrics metrics = OntoCapecMetrics.get();
+        OntoCapecMetrics.Sample sample = metrics.start();
+        long start = System.nanoTime();
+        CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(path));
+        OutputStream out = gzip ? new GZIPOutputStream(counter, 1 << 16) : new BufferedOutputStream(counter, 1 << 16);
+        try {
+            if(format.streaming){
+                // Send the triples to the writer one by one
+                StreamRDF stream = StreamRDFWriter.getWriterStream(out, format.rdfFormat, null);
+                StreamRDFOps.graphToStream(g, stream);
+            } else {
+                RDFDataMgr.write(out, g, format.rdfFormat);
+            }
+        } finally {
+            out.close();
+        }
+        WriteStats stats = new WriteStats(format, path, g.size(), counter.count, System.nanoTime() - start);
+        metrics.stop("write", path, sample);
+        metrics.increment("write.bytes", stats.bytes);
+        metrics.increment("write.triples", stats.triples);
+        return stats;
+    }
+
+    /**
+     * This method writes the base triples of the model on a background thread.
+     * The triples are copied first in a read-only graph, so the model can be
+     * used (and changed) while the file is written.
+     * @param m: model to write
+     * @param path: file to write
+     * @return: the future result with the statistics of the write
+     */
+    public Future<WriteStats> writeAsync(Model m, final String path){
+        Graph copy = GraphFactory.createGraphMem();
+        GraphUtil.addInto(copy, m.getGraph());
+        copy.getPrefixMapping().setNsPrefixes(m.getNsPrefixMap());
+        final Graph readOnly = new GraphReadOnly(copy);
+
+        FutureTask<WriteStats> task = new FutureTask<>(new Callable<WriteStats>() {
+            @Override
+            public WriteStats call() throws IOException {
+                return write(readOnly, path);
+            }
+        });
+        Thread writer = new Thread(task, "capec-writer");
+        writer.start();
+        return task;
+    }
+
+    // Stream that counts the bytes written in the file
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {super(out);}
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}